@@ -0,0 +1,68 @@
+package newbank.bench;
+
+import java.util.Arrays;
+
+/**
+ * Minimal benchmark harness, so benchmarks run with nothing but the JDK.
+ * <p>
+ * {@link #throughput} warms an operation up for the given time, then runs it in growing batches for the same time
+ * again and reports the average cost per call. {@link #single} times whole runs of a long task such as loading a data
+ * set. Results of operations are summed into a volatile sink so the JIT cannot drop the work.
+ */
+final class Bench {
+	static volatile long sink;
+
+	interface Operation {
+		/** Runs one call of the operation, returning anything derived from its result */
+		long run(int iteration) throws Exception;
+	}
+
+	interface Task {
+		void run() throws Exception;
+	}
+
+	private Bench() {
+	}
+
+	static void throughput(String name, long millis, Operation operation) throws Exception {
+		runFor(millis, operation);
+		long[] result = runFor(millis, operation);
+		double nanosPerOp = (double) result[1] / result[0];
+		System.out.println(String.format("%-48s %14.1f ns/op %14.0f ops/s %10d ops", name, nanosPerOp, 1e9 / nanosPerOp, result[0]));
+	}
+
+	/** Runs batches until the time is up, growing a batch only while it stays short, and returns {ops, nanos} */
+	private static long[] runFor(long millis, Operation operation) throws Exception {
+		long start = System.nanoTime();
+		long deadline = start + millis * 1_000_000;
+		long ops = 0;
+		long accumulated = 0;
+		int batch = 1;
+		while (true) {
+			long batchStart = System.nanoTime();
+			for (int i = 0; i < batch; i++) {
+				accumulated += operation.run((int) ops + i);
+			}
+			ops += batch;
+			long now = System.nanoTime();
+			if (now >= deadline) {
+				sink += accumulated;
+				return new long[] {ops, now - start};
+			}
+			if (now - batchStart < 10_000_000 && batch < 1 << 20) {
+				batch <<= 1;
+			}
+		}
+	}
+
+	static void single(String name, int repetitions, Task task) throws Exception {
+		long[] millis = new long[repetitions];
+		for (int i = 0; i < repetitions; i++) {
+			long start = System.nanoTime();
+			task.run();
+			millis[i] = (System.nanoTime() - start) / 1_000_000;
+		}
+		Arrays.sort(millis);
+		System.out.println(String.format("%-48s %14d ms min %11d ms median %7d runs", name, millis[0], millis[repetitions / 2], repetitions));
+	}
+}
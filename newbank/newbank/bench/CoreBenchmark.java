@@ -0,0 +1,154 @@
+package newbank.bench;
+
+import newbank.server.DatabaseHandler;
+import newbank.server.NewBank;
+import newbank.server.Pbkdf2CredentialHasher;
+import newbank.server.Session;
+import newbank.server.exception.username.UsernameExistsException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Measures NewBank's core operations over synthetic banks of increasing size: loading the CSV snapshot, building the
+ * bank, linking customers to accounts, username lookups, password checks, transfers, registering customers and
+ * writing a snapshot. Each customer {@code cust<id>} has a main and a savings account of 1000.00.
+ * <p>
+ * Run with {@code java -cp <classes> newbank.bench.CoreBenchmark [--customers=1000,100000] [--millis=1000] [--dir=path]}.
+ * Transfers and registrations go through the journal, so their cost depends on {@code -Dnewbank.journal.fsync};
+ * registrations also depend on {@code -Dnewbank.password.iterations}. The largest sizes need a correspondingly large
+ * heap, about 1 GB per million customers, so the default 10 million needs around {@code -Xmx12g} and about 2 GB of disk
+ * for its data set; a size the heap cannot hold is skipped with a note rather than ending the run.
+ */
+public class CoreBenchmark {
+	private static final String PASSWORD = "Bench1234!";
+	private static final int SAMPLES = 1 << 12;
+	private static final long HEAP_BYTES_PER_CUSTOMER = 1_000;
+
+	private long millis = 1000;
+	private File directory;
+
+	public static void main(String[] args) throws Exception {
+		String sizes = "1000,10000,100000,1000000,10000000";
+		CoreBenchmark benchmark = new CoreBenchmark();
+		for (String arg : args) {
+			String[] option = arg.split("=", 2);
+			switch (option[0]) {
+				case "--customers" -> sizes = option[1];
+				case "--millis" -> benchmark.millis = Long.parseLong(option[1]);
+				case "--dir" -> benchmark.directory = new File(option[1]);
+				default -> throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		if (benchmark.directory == null) {
+			benchmark.directory = Files.createTempDirectory("newbank-bench").toFile();
+		}
+		System.out.println(String.format("Journal fsync %s, %d password iterations, data in %s",
+				System.getProperty("newbank.journal.fsync", "always"),
+				Integer.getInteger(Pbkdf2CredentialHasher.ITERATIONS_PROPERTY, Pbkdf2CredentialHasher.DEFAULT_ITERATIONS),
+				benchmark.directory));
+		for (String size : sizes.split(",")) {
+			benchmark.run(Integer.parseInt(size.trim()));
+		}
+		System.exit(0);
+	}
+
+	private void run(int customerCount) throws Exception {
+		System.out.println();
+		System.out.println("== " + customerCount + " customers");
+		long heapNeeded = customerCount * HEAP_BYTES_PER_CUSTOMER;
+		if (Runtime.getRuntime().maxMemory() < heapNeeded) {
+			System.out.println(String.format("Skipped: needs about %d MB of heap, run with a larger -Xmx",
+					heapNeeded >> 20));
+			return;
+		}
+		File dataDirectory = new File(directory, "n" + customerCount);
+		writeDataSet(dataDirectory, customerCount);
+		DatabaseHandler handler = new DatabaseHandler(dataDirectory);
+
+		Bench.single("DatabaseHandler.getCustomers", 3, () -> Bench.sink += handler.getCustomers().size());
+		Bench.single("DatabaseHandler.getAccounts", 3, () -> Bench.sink += handler.getAccounts().size());
+		NewBank[] created = new NewBank[1];
+		Bench.single("new NewBank (load, replay, snapshot)", 1, () -> created[0] = new NewBank(handler));
+		NewBank bank = created[0];
+		// linking appends to each customer's account list, so every run starts from freshly loaded maps
+		long[] linkMillis = new long[3];
+		for (int i = 0; i < linkMillis.length; i++) {
+			bank.setCustomers(handler.getCustomers());
+			bank.setAccounts(handler.getAccounts());
+			long start = System.nanoTime();
+			bank.linkCustomersToAccounts();
+			linkMillis[i] = (System.nanoTime() - start) / 1_000_000;
+		}
+		System.out.println(String.format("%-48s %14d ms min", "NewBank.linkCustomersToAccounts",
+				Math.min(linkMillis[0], Math.min(linkMillis[1], linkMillis[2]))));
+
+		Random random = new Random(42);
+		int[] ids = new int[SAMPLES];
+		String[] usernames = new String[SAMPLES];
+		Session[] sessions = new Session[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			ids[i] = 1 + random.nextInt(customerCount);
+			usernames[i] = "cust" + ids[i];
+			sessions[i] = new Session();
+			sessions[i].setCustomer(bank.getCustomers().get(ids[i]));
+		}
+		int mask = SAMPLES - 1;
+
+		Bench.throughput("NewBank.usernameExists", millis, i -> bank.usernameExists(usernames[i & mask]));
+		Bench.throughput("NewBank.usernameExists (unknown)", millis, i -> bank.usernameExists("nobody") == null ? 0 : 1);
+		Bench.throughput("NewBank.checkPassword (correct, cached)", millis, i -> bank.checkPassword(ids[i & mask], PASSWORD) ? 1 : 0);
+		Bench.throughput("NewBank.checkPassword (wrong)", millis, i -> bank.checkPassword(ids[i & mask], "Wrong1234!") ? 1 : 0);
+		Bench.throughput("NewBank.internalTransfer", millis, i -> {
+			// alternate directions so balances never run out
+			if ((i & SAMPLES) == 0) {
+				bank.internalTransfer(sessions[i & mask], "main", "savings", 1);
+			} else {
+				bank.internalTransfer(sessions[i & mask], "savings", "main", 1);
+			}
+			return 1;
+		});
+		Bench.throughput("NewBank.externalTransfer", millis, i -> {
+			bank.externalTransfer(sessions[i & mask], usernames[(i + 1) & mask], "main", 1);
+			return 1;
+		});
+		Bench.throughput("NewBank.addCustomer", millis, i -> {
+			try {
+				bank.addCustomer(new Session(), "new" + customerCount + "x" + i + "x" + System.nanoTime(), PASSWORD, 100);
+				return 1;
+			} catch (UsernameExistsException ex) {
+				return 0;
+			}
+		});
+		Bench.single("DatabaseHandler.persistAccounts", 3, () -> handler.persistAccounts(bank.getAccounts()));
+		Bench.single("NewBank.persistData", 3, bank::persistData);
+		bank.close();
+	}
+
+	/** Writes a snapshot in the CSV format the bank reads, sharing one precomputed password hash between customers */
+	private static void writeDataSet(File dataDirectory, int customerCount) throws IOException {
+		if (!dataDirectory.isDirectory() && !dataDirectory.mkdirs()) {
+			throw new IOException("Cannot create " + dataDirectory);
+		}
+		for (String name : new String[] {"journal.bin", "account_balance.bin"}) {
+			Files.deleteIfExists(new File(dataDirectory, name).toPath());
+		}
+		for (String name : new String[] {"sequence.csv", "microloan.csv", "microloan_offer.csv", "microloan_request.csv"}) {
+			Files.write(new File(dataDirectory, name).toPath(), new byte[0]);
+		}
+		String hash = new Pbkdf2CredentialHasher().hash(PASSWORD);
+		try (Writer customers = new BufferedWriter(new FileWriter(new File(dataDirectory, "customer.csv")), 1 << 16);
+				Writer accounts = new BufferedWriter(new FileWriter(new File(dataDirectory, "account.csv")), 1 << 16)) {
+			for (int id = 1; id <= customerCount; id++) {
+				customers.write("id:" + id + ",username:cust" + id + ",password:" + hash + "\n");
+				accounts.write("id:" + (2 * id - 1) + ",customerId:" + id + ",name:main,balance:1000.00\n");
+				accounts.write("id:" + (2 * id) + ",customerId:" + id + ",name:savings,balance:1000.00\n");
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package newbank.bench;
+
+import newbank.server.validation.Validators;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the password policy check with the regex it replaced: compiled on every call as NewBank used to, and
+ * precompiled. First confirms all three accept exactly the same passwords over a random corpus.
+ * <p>
+ * Run with {@code java -cp <classes> newbank.bench.PasswordPolicyBenchmark [iterations]}.
+ */
+public class PasswordPolicyBenchmark {
+	private static final String REGEX = "^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=.*[@#$%^&+=!?])(?=\\S+$).{8,25}$";
+	private static final Pattern PRECOMPILED = Pattern.compile(REGEX);
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789@#$%^&+=!?-_. \té ";
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		String[] passwords = corpus(4096, new Random(42));
+		for (String password : passwords) {
+			boolean expected = Pattern.compile(REGEX).matcher(password).matches();
+			if (PRECOMPILED.matcher(password).matches() != expected || (Validators.PASSWORD.check(password) == null) != expected) {
+				throw new IllegalStateException("Policies disagree on \"" + password + "\"");
+			}
+		}
+		for (int round = 0; round < 3; round++) {
+			boolean warmup = round < 2;
+			report("regex compiled per call", warmup, iterations / 10, passwords, password -> Pattern.compile(REGEX).matcher(password).matches());
+			report("precompiled regex", warmup, iterations, passwords, password -> PRECOMPILED.matcher(password).matches());
+			report("character policy", warmup, iterations, passwords, password -> Validators.PASSWORD.check(password) == null);
+		}
+	}
+
+	private interface Check {
+		boolean valid(String password);
+	}
+
+	private static void report(String name, boolean warmup, int iterations, String[] passwords, Check check) {
+		int validCount = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			if (check.valid(passwords[i & (passwords.length - 1)])) {
+				validCount++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		if (!warmup) {
+			System.out.println(String.format("%-24s %8.1f ns/op (%d valid)", name, (double) elapsed / iterations, validCount));
+		}
+	}
+
+	/** Random passwords around the policy's boundaries, about half of them valid */
+	private static String[] corpus(int size, Random random) {
+		String[] passwords = new String[size];
+		for (int i = 0; i < size; i++) {
+			StringBuilder sb = new StringBuilder();
+			int length = 6 + random.nextInt(22);
+			if (random.nextBoolean()) {
+				sb.append('a').append('B').append('3').append('!');
+			}
+			while (sb.length() < length) {
+				sb.append(ALPHABET.charAt(random.nextInt(random.nextInt(4) == 0 ? ALPHABET.length() : 62)));
+			}
+			passwords[i] = sb.toString();
+		}
+		return passwords;
+	}
+}
@@ -0,0 +1,169 @@
+package newbank.client;
+
+import newbank.server.BinaryProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * Client for the {@link BinaryProtocol}. The {@code send} methods only buffer a request and return its id, so many
+ * requests can be pipelined with one {@link #flush()} and their responses read back in order with {@link #read()}.
+ * The other methods send one request and wait for its response.
+ */
+public class BinaryClient implements Closeable {
+	/** A response frame; on success {@link #body} holds the command's fields, otherwise the error message */
+	public static class Response {
+		public final int requestId;
+		public final byte status;
+		public final DataInputStream body;
+
+		Response(int requestId, byte status, DataInputStream body) {
+			this.requestId = requestId;
+			this.status = status;
+			this.body = body;
+		}
+
+		public boolean isOk() {
+			return status == BinaryProtocol.OK;
+		}
+
+		public String errorMessage() throws IOException {
+			return isOk() ? null : body.readUTF();
+		}
+	}
+
+	/** One item of a batch transfer, with the amount in pence */
+	public static class Transfer {
+		public final String fromAccount;
+		public final String toUsername;
+		public final String toAccount;
+		public final long amount;
+
+		public Transfer(String fromAccount, String toUsername, String toAccount, long amount) {
+			this.fromAccount = fromAccount;
+			this.toUsername = toUsername;
+			this.toAccount = toAccount;
+			this.amount = amount;
+		}
+	}
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final ByteArrayOutputStream frameBody = new ByteArrayOutputStream(256);
+	private final DataOutputStream frame = new DataOutputStream(frameBody);
+	private int nextRequestId;
+
+	public BinaryClient(String ip, int port) throws IOException {
+		socket = new Socket(ip, port);
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+	}
+
+	private int begin(byte command) throws IOException {
+		frameBody.reset();
+		int requestId = ++nextRequestId;
+		frame.writeInt(requestId);
+		frame.writeByte(command);
+		return requestId;
+	}
+
+	private int end(int requestId) throws IOException {
+		out.writeInt(frameBody.size());
+		frameBody.writeTo(out);
+		return requestId;
+	}
+
+	public int sendLogin(String username, String password) throws IOException {
+		int requestId = begin(BinaryProtocol.LOGIN);
+		frame.writeUTF(username);
+		frame.writeUTF(password);
+		return end(requestId);
+	}
+
+	public int sendLogout() throws IOException {
+		return end(begin(BinaryProtocol.LOGOUT));
+	}
+
+	public int sendListAccounts() throws IOException {
+		return end(begin(BinaryProtocol.LIST_ACCOUNTS));
+	}
+
+	/** @param amount in pence */
+	public int sendTransfer(String fromAccount, String toUsername, String toAccount, long amount) throws IOException {
+		int requestId = begin(BinaryProtocol.TRANSFER);
+		frame.writeUTF(fromAccount);
+		frame.writeUTF(toUsername);
+		frame.writeUTF(toAccount);
+		frame.writeLong(amount);
+		return end(requestId);
+	}
+
+	/** Sends transfers that the server applies all together or not at all */
+	public int sendBatchTransfer(List<Transfer> transfers) throws IOException {
+		int requestId = begin(BinaryProtocol.BATCH_TRANSFER);
+		frame.writeInt(transfers.size());
+		for (Transfer transfer : transfers) {
+			frame.writeUTF(transfer.fromAccount);
+			frame.writeUTF(transfer.toUsername);
+			frame.writeUTF(transfer.toAccount);
+			frame.writeLong(transfer.amount);
+		}
+		return end(requestId);
+	}
+
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/** Reads the next response, blocking until it arrives */
+	public Response read() throws IOException {
+		int length = in.readInt();
+		if (length < 5 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+			throw new IOException("Invalid response frame of " + length + " bytes");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes));
+		return new Response(body.readInt(), body.readByte(), body);
+	}
+
+	private Response call(int requestId) throws IOException {
+		flush();
+		Response response = read();
+		if (response.requestId != requestId) {
+			throw new IOException("Expected response to request " + requestId + " but got " + response.requestId);
+		}
+		return response;
+	}
+
+	public Response login(String username, String password) throws IOException {
+		return call(sendLogin(username, password));
+	}
+
+	public Response listAccounts() throws IOException {
+		return call(sendListAccounts());
+	}
+
+	public Response transfer(String fromAccount, String toUsername, String toAccount, long amount) throws IOException {
+		return call(sendTransfer(fromAccount, toUsername, toAccount, amount));
+	}
+
+	public Response batchTransfer(List<Transfer> transfers) throws IOException {
+		return call(sendBatchTransfer(transfers));
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+}
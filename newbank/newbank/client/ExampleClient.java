@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
 public class ExampleClient extends Thread{
 	
@@ -49,7 +50,12 @@ public class ExampleClient extends Thread{
 		}
 	}
 	
-	public static void main(String[] args) throws IOException {
+	public static void main(String[] args) throws IOException, InterruptedException {
+		// --load runs the load generator instead of relaying stdin, see LoadGenerator for its options
+		if (Arrays.asList(args).contains("--load")) {
+			new LoadGenerator(args).run();
+			return;
+		}
 		new ExampleClient("localhost",14002).start();
 	}
 }
@@ -0,0 +1,339 @@
+package newbank.client;
+
+import newbank.server.LatencyHistogram;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives many concurrent sessions against a running NewBankServer and reports throughput and latency percentiles per
+ * operation.
+ * <p>
+ * Each session registers its own customer and logs in, then, once every session is ready, repeatedly picks an
+ * operation from the weighted mix until the run is over. Operations in the warm-up period are not counted. Sessions
+ * speak either the text menu or the binary protocol; registering always goes through the text menu, which is the only
+ * way to do it. For example:
+ * <pre>
+ * java newbank.client.ExampleClient --load --sessions=2000 --duration=60 --protocol=binary --mix=register:1,login:2,list:10,transfer:20
+ * </pre>
+ */
+public class LoadGenerator {
+	enum Operation {
+		REGISTER,
+		LOGIN,
+		LIST,
+		TRANSFER
+	}
+
+	private static final String PASSWORD = "LoadTest1!";
+	private static final String MAIN_MENU = "Welcome to NewBank, what would you like to do?";
+	private static final String START_MENU = "Welcome to NewBank, please choose";
+	/** A session waiting longer than this for a reply gives up, so one lost reply cannot hang the run */
+	private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+	private String host = "localhost";
+	private int port = 14002;
+	private int binaryPort = 14003;
+	private boolean binary;
+	private int sessions = 100;
+	private int durationSeconds = 30;
+	private int warmupSeconds = 5;
+	private final EnumMap<Operation, Integer> mix = new EnumMap<>(Map.of(
+			Operation.REGISTER, 1, Operation.LOGIN, 2, Operation.LIST, 10, Operation.TRANSFER, 20));
+
+	private final String runId = Long.toString(System.currentTimeMillis() % 1_000_000_000L, 36);
+	private final AtomicInteger extraUsers = new AtomicInteger();
+	private final AtomicInteger readySessions = new AtomicInteger();
+	private String[] sessionUsers;
+	private final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+	private final EnumMap<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+	private volatile boolean measuring;
+	private volatile boolean running = true;
+
+	public LoadGenerator(String[] args) {
+		for (String arg : args) {
+			String[] option = arg.split("=", 2);
+			switch (option[0]) {
+				case "--load" -> {
+				}
+				case "--host" -> host = option[1];
+				case "--port" -> port = Integer.parseInt(option[1]);
+				case "--binary-port" -> binaryPort = Integer.parseInt(option[1]);
+				case "--protocol" -> binary = option[1].equalsIgnoreCase("binary");
+				case "--sessions" -> sessions = Integer.parseInt(option[1]);
+				case "--duration" -> durationSeconds = Integer.parseInt(option[1]);
+				case "--warmup" -> warmupSeconds = Integer.parseInt(option[1]);
+				case "--mix" -> {
+					mix.clear();
+					for (String weight : option[1].split(",")) {
+						String[] pair = weight.split(":");
+						mix.put(Operation.valueOf(pair[0].toUpperCase()), Integer.parseInt(pair[1]));
+					}
+				}
+				default -> throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		if (sessions < 2) {
+			throw new IllegalArgumentException("Transfers need at least two sessions");
+		}
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new LatencyHistogram());
+			errors.put(operation, new AtomicLong());
+		}
+	}
+
+	public void run() throws InterruptedException {
+		sessionUsers = new String[sessions];
+		CountDownLatch ready = new CountDownLatch(sessions);
+		CountDownLatch done = new CountDownLatch(sessions);
+		System.out.println(String.format("Starting %d %s sessions against %s, mix %s", sessions, binary ? "binary" : "text", host, mix));
+		for (int i = 0; i < sessions; i++) {
+			int sessionIndex = i;
+			Thread thread = new Thread(() -> {
+				AtomicBoolean signalledReady = new AtomicBoolean();
+				try {
+					runSession(sessionIndex, ready, signalledReady);
+				} catch (IOException ex) {
+					System.err.println("Session " + sessionIndex + " failed: " + ex);
+				} finally {
+					if (!signalledReady.getAndSet(true)) {
+						ready.countDown();
+					}
+					done.countDown();
+				}
+			}, "load-session-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		ready.await();
+		System.out.println(String.format("%d sessions ready, warming up for %d s", readySessions.get(), warmupSeconds));
+		Thread.sleep(warmupSeconds * 1000L);
+		measuring = true;
+		long start = System.nanoTime();
+		Thread.sleep(durationSeconds * 1000L);
+		measuring = false;
+		long elapsed = System.nanoTime() - start;
+		running = false;
+		done.await();
+		report(elapsed);
+	}
+
+	private void runSession(int sessionIndex, CountDownLatch ready, AtomicBoolean signalledReady) throws IOException {
+		String username = "load" + runId + "s" + sessionIndex;
+		registerUser(username);
+		sessionUsers[sessionIndex] = username;
+		try (Connection connection = binary ? new BinaryConnection() : new TextConnection()) {
+			connection.login(username);
+			readySessions.incrementAndGet();
+			signalledReady.set(true);
+			ready.countDown();
+			try {
+				ready.await();
+			} catch (InterruptedException ex) {
+				return;
+			}
+			Random random = new Random(sessionIndex);
+			int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+			while (running) {
+				Operation operation = pick(random.nextInt(totalWeight));
+				long startNanos = System.nanoTime();
+				boolean ok;
+				try {
+					ok = switch (operation) {
+						case REGISTER -> registerUser("load" + runId + "r" + extraUsers.incrementAndGet());
+						case LOGIN -> connection.relogin(username);
+						case LIST -> connection.listAccounts();
+						case TRANSFER -> connection.transfer(recipient(random, sessionIndex));
+					};
+				} catch (IOException ex) {
+					errors.get(operation).incrementAndGet();
+					throw ex;
+				}
+				if (measuring) {
+					if (ok) {
+						latencies.get(operation).record(System.nanoTime() - startNanos);
+					} else {
+						errors.get(operation).incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+
+	private Operation pick(int ticket) {
+		for (Map.Entry<Operation, Integer> weight : mix.entrySet()) {
+			ticket -= weight.getValue();
+			if (ticket < 0) {
+				return weight.getKey();
+			}
+		}
+		throw new IllegalStateException("Empty mix");
+	}
+
+	private String recipient(Random random, int sessionIndex) {
+		int other = random.nextInt(sessions - 1);
+		return sessionUsers[other >= sessionIndex ? other + 1 : other];
+	}
+
+	/** Registers a customer through the text menu on a connection of its own */
+	private boolean registerUser(String username) throws IOException {
+		try (TextConnection connection = new TextConnection()) {
+			connection.send("2");
+			connection.send(username);
+			connection.send(PASSWORD);
+			connection.send("1000");
+			return connection.expect(START_MENU, "already exists").startsWith(START_MENU);
+		}
+	}
+
+	private interface Connection extends Closeable {
+		void login(String username) throws IOException;
+
+		boolean relogin(String username) throws IOException;
+
+		boolean listAccounts() throws IOException;
+
+		boolean transfer(String toUsername) throws IOException;
+	}
+
+	private class TextConnection implements Connection {
+		private final Socket socket;
+		private final BufferedReader in;
+		private final PrintWriter out;
+
+		TextConnection() throws IOException {
+			socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			out = new PrintWriter(socket.getOutputStream(), true);
+			expect(START_MENU);
+		}
+
+		void send(String line) {
+			out.println(line);
+		}
+
+		/** Reads lines until one starts with or contains any of the given texts, and returns it */
+		String expect(String... texts) throws IOException {
+			while (true) {
+				String line = in.readLine();
+				if (line == null) {
+					throw new EOFException("Server closed the connection");
+				}
+				for (String text : texts) {
+					if (line.contains(text)) {
+						return line;
+					}
+				}
+			}
+		}
+
+		@Override
+		public void login(String username) throws IOException {
+			send("1");
+			send(username);
+			send(PASSWORD);
+			expect(MAIN_MENU);
+		}
+
+		@Override
+		public boolean relogin(String username) throws IOException {
+			send("10");
+			expect(START_MENU);
+			login(username);
+			return true;
+		}
+
+		@Override
+		public boolean listAccounts() throws IOException {
+			send("1");
+			expect("name: main");
+			expect(MAIN_MENU);
+			return true;
+		}
+
+		@Override
+		public boolean transfer(String toUsername) throws IOException {
+			send("5");
+			send(toUsername);
+			send("main");
+			send("0.01");
+			boolean ok = expect("successfully transferred", "Insufficient funds", "No customer").contains("successfully");
+			if (!ok) {
+				// the menu asks for a recipient again after a failed transfer
+				send("x");
+			}
+			expect(MAIN_MENU);
+			return ok;
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	private class BinaryConnection implements Connection {
+		private final BinaryClient client = new BinaryClient(host, binaryPort);
+
+		BinaryConnection() throws IOException {
+		}
+
+		@Override
+		public void login(String username) throws IOException {
+			if (!relogin(username)) {
+				throw new IOException("Could not log in as " + username);
+			}
+		}
+
+		@Override
+		public boolean relogin(String username) throws IOException {
+			return client.login(username, PASSWORD).isOk();
+		}
+
+		@Override
+		public boolean listAccounts() throws IOException {
+			return client.listAccounts().isOk();
+		}
+
+		@Override
+		public boolean transfer(String toUsername) throws IOException {
+			return client.transfer("main", toUsername, "main", 1).isOk();
+		}
+
+		@Override
+		public void close() throws IOException {
+			client.close();
+		}
+	}
+
+	private void report(long elapsedNanos) {
+		double seconds = elapsedNanos / 1e9;
+		long total = 0;
+		System.out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s %8s",
+				"operation", "count", "ops/s", "p50 us", "p99 us", "p999 us", "max us", "errors"));
+		for (Operation operation : Operation.values()) {
+			LatencyHistogram histogram = latencies.get(operation);
+			total += histogram.getCount();
+			System.out.println(String.format("%-10s %10d %10.0f %10.0f %10.0f %10.0f %10.0f %8d",
+					operation.name().toLowerCase(), histogram.getCount(), histogram.getCount() / seconds,
+					histogram.getPercentile(0.50) / 1e3, histogram.getPercentile(0.99) / 1e3,
+					histogram.getPercentile(0.999) / 1e3, histogram.getMax() / 1e3, errors.get(operation).get()));
+		}
+		System.out.println(String.format("total %d operations in %.1f s, %.0f ops/s", total, seconds, total / seconds));
+	}
+}
@@ -1,22 +1,21 @@
 package newbank.server;
 
-import java.util.HashMap;
-
 public class Account {
 	private int id;
 	private int customerId;
 	private String name;
-	private double balance;
+	private volatile long balance;
+	private volatile boolean dirty;
 
 	public Account(int accountId) {
 		id = accountId;
 	}
 
-	public Account(HashMap<String, String> record) {
-		id = Integer.parseInt(record.get("id"));
-		customerId = Integer.parseInt(record.get("customerId"));
-		name = record.get("name");
-		balance = Double.parseDouble(record.get("balance"));
+	public Account(RecordReader record) {
+		id = record.getInt("id");
+		customerId = record.getInt("customerId");
+		name = record.getString("name");
+		balance = record.getPence("balance");
 	}
 
 	public int getId() {
@@ -39,18 +38,40 @@ public class Account {
 		this.name = name;
 	}
 
-	public double getBalance() {
+	/** Balance in pence */
+	public long getBalance() {
 		return balance;
 	}
 
-	public void setBalance(double balance) {
+	public void setBalance(long balance) {
 		this.balance = balance;
 	}
 
+	/**
+	 * Marks the account as changed since the last snapshot.
+	 *
+	 * @return false if it was already marked, so callers queue it for the next snapshot only once
+	 */
+	public boolean markDirty() {
+		if (dirty) {
+			return false;
+		}
+		dirty = true;
+		return true;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public void clearDirty() {
+		dirty = false;
+	}
+
 	@Override
 	public String toString() {
 		return "id: " + id + " - " +
 			   "name: " + name + " - " +
-			   "balance: " + String.format("£%.2f", balance);
+			   "balance: £" + Money.format(balance);
 	}
 }
@@ -0,0 +1,96 @@
+package newbank.server;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks keyed by account id. A transfer locks the stripes of both accounts in ascending stripe order, so two
+ * transfers can never wait on each other in a cycle, while transfers between unrelated accounts run in parallel.
+ */
+public class AccountLocks {
+	private static final int DEFAULT_STRIPES = 1024;
+
+	private final ReentrantLock[] stripes;
+	private final int mask;
+
+	public AccountLocks() {
+		this(DEFAULT_STRIPES);
+	}
+
+	public AccountLocks(int stripeCount) {
+		int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+		stripes = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+		mask = size - 1;
+	}
+
+	private int stripeFor(int accountId) {
+		// spread the bits so consecutive ids do not cluster on neighbouring stripes
+		int h = accountId * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/** Takes the lock, timing the wait only when it is already held so uncontended locking stays a single CAS */
+	private static void acquire(ReentrantLock lock) {
+		if (!lock.tryLock()) {
+			long startNanos = System.nanoTime();
+			lock.lock();
+			Metrics.lockWaited(System.nanoTime() - startNanos);
+		}
+	}
+
+	/** Locks the stripes of both accounts in a fixed order; release with {@link #unlock(int, int)} */
+	public void lock(int firstAccountId, int secondAccountId) {
+		int a = stripeFor(firstAccountId);
+		int b = stripeFor(secondAccountId);
+		if (a == b) {
+			acquire(stripes[a]);
+		} else {
+			acquire(stripes[Math.min(a, b)]);
+			acquire(stripes[Math.max(a, b)]);
+		}
+	}
+
+	public void unlock(int firstAccountId, int secondAccountId) {
+		int a = stripeFor(firstAccountId);
+		int b = stripeFor(secondAccountId);
+		if (a == b) {
+			stripes[a].unlock();
+		} else {
+			stripes[Math.max(a, b)].unlock();
+			stripes[Math.min(a, b)].unlock();
+		}
+	}
+
+	/**
+	 * Locks the stripes of all the given accounts in ascending stripe order, each once.
+	 *
+	 * @return the stripes locked, to be passed to {@link #unlockAll(int[])}
+	 */
+	public int[] lockAll(int[] accountIds) {
+		int[] locked = new int[accountIds.length];
+		for (int i = 0; i < accountIds.length; i++) {
+			locked[i] = stripeFor(accountIds[i]);
+		}
+		Arrays.sort(locked);
+		int count = 0;
+		for (int i = 0; i < locked.length; i++) {
+			if (i == 0 || locked[i] != locked[i - 1]) {
+				locked[count++] = locked[i];
+			}
+		}
+		locked = Arrays.copyOf(locked, count);
+		for (int stripe : locked) {
+			acquire(stripes[stripe]);
+		}
+		return locked;
+	}
+
+	public void unlockAll(int[] locked) {
+		for (int i = locked.length - 1; i >= 0; i--) {
+			stripes[locked[i]].unlock();
+		}
+	}
+}
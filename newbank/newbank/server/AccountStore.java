@@ -0,0 +1,115 @@
+package newbank.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Memory-mapped file of account balances with one fixed-width slot per account id.
+ * <p>
+ * The slot for account {@code id} starts at {@code HEADER_SIZE + id * SLOT_SIZE} and holds {@code [id][unused][balance]},
+ * so changing a balance is a single positional write into the mapping, with no scan and nothing else rewritten. The
+ * account id is stored in the slot so that an empty or cleared slot is never mistaken for a zero balance. The file grows
+ * by remapping when an id beyond the current capacity is written.
+ */
+public class AccountStore {
+	private static final int MAGIC = 0x4E424153;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int SLOT_SIZE = 16;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final FileChannel channel;
+	private volatile MappedByteBuffer slots;
+	private volatile int capacity;
+
+	public AccountStore(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if (channel.size() < HEADER_SIZE) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			channel.truncate(0);
+			channel.write(header, 0);
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(8);
+			channel.read(header, 0);
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not an account store: " + file);
+			}
+		}
+		map(Math.max(INITIAL_CAPACITY, (int) ((channel.size() - HEADER_SIZE) / SLOT_SIZE)));
+	}
+
+	private void map(int newCapacity) throws IOException {
+		slots = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, (long) newCapacity * SLOT_SIZE);
+		capacity = newCapacity;
+	}
+
+	private synchronized void ensureCapacity(int accountId) throws IOException {
+		if (accountId < capacity) {
+			return;
+		}
+		int newCapacity = capacity;
+		while (newCapacity <= accountId) {
+			newCapacity *= 2;
+		}
+		map(newCapacity);
+	}
+
+	/** Writes the balance of an account into its slot */
+	public void put(int accountId, long balance) {
+		try {
+			if (accountId >= capacity) {
+				ensureCapacity(accountId);
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		MappedByteBuffer buffer = slots;
+		int offset = accountId * SLOT_SIZE;
+		buffer.putLong(offset + 8, balance);
+		buffer.putInt(offset, accountId);
+	}
+
+	/** Clears the slot of a deleted account */
+	public void remove(int accountId) {
+		if (accountId < capacity) {
+			slots.putInt(accountId * SLOT_SIZE, 0);
+		}
+	}
+
+	/** Whether the store holds a balance for the account */
+	public boolean contains(int accountId) {
+		return accountId > 0 && accountId < capacity && slots.getInt(accountId * SLOT_SIZE) == accountId;
+	}
+
+	/** Balance in pence held for the account, only meaningful if {@link #contains(int)} */
+	public long get(int accountId) {
+		return slots.getLong(accountId * SLOT_SIZE + 8);
+	}
+
+	/** Replaces the balances of loaded accounts with the ones in the store, which are written on every change */
+	public void overlay(Map<Integer, Account> accounts) {
+		for (Account account : accounts.values()) {
+			if (contains(account.getId())) {
+				account.setBalance(get(account.getId()));
+			}
+		}
+	}
+
+	/** Forces balances written since the last call to disk; only the pages that changed are written */
+	public void force() {
+		slots.force();
+	}
+
+	public void close() throws IOException {
+		slots.force();
+		channel.close();
+	}
+}
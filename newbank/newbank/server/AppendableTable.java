@@ -0,0 +1,164 @@
+package newbank.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary table that grows by appending, for tables that only ever gain rows, such as the microloans, where a
+ * {@link BinarySnapshot} would have to be rewritten whole for every new row.
+ * <p>
+ * The 16-byte header is {@code [magic][version][table][recordSize]}, followed by fixed-size records holding numbers
+ * only, each ending in a CRC32C of its fields, so row {@code n} is at {@code 16 + n * recordSize}. An {@link Appender}
+ * writes a record at the end of the file and forces it to disk. A crash can only tear the last record, which the
+ * {@link Reader} cuts off the way the journal drops a torn tail; a bad record anywhere else stops the load.
+ */
+public final class AppendableTable {
+	private static final int MAGIC = 0x4E42414C;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+
+	private AppendableTable() {
+	}
+
+	private static ByteBuffer header(BinarySnapshot.Table table) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(table.code).putInt(table.recordSize).flip();
+		return header;
+	}
+
+	private static void checkHeader(FileChannel channel, File file, BinarySnapshot.Table table) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				break;
+			}
+		}
+		header.flip();
+		if (header.remaining() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+			throw new IOException("Not a version " + VERSION + " appendable table: " + file);
+		}
+		if (header.getInt(8) != table.code || header.getInt(12) != table.recordSize) {
+			throw new IOException(file + " does not hold " + table);
+		}
+	}
+
+	/** Appends records to a table, creating it if it does not exist yet; each row is started with {@link #next()} */
+	public static class Appender implements Closeable {
+		private final BinarySnapshot.Table table;
+		private final FileChannel channel;
+		private final ByteBuffer record;
+		private final CRC32C crc = new CRC32C();
+
+		public Appender(File file, BinarySnapshot.Table table) throws IOException {
+			this.table = table;
+			record = ByteBuffer.allocate(table.recordSize);
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			if (channel.size() == 0) {
+				write(header(table), 0);
+			} else {
+				checkHeader(channel, file, table);
+			}
+		}
+
+		/** Starts the next record, returning the buffer its fields are put into */
+		public ByteBuffer next() {
+			record.clear();
+			return record;
+		}
+
+		/** Writes the record started with {@link #next()} at the end of the table */
+		public void append() throws IOException {
+			if (record.position() != table.recordSize - 4) {
+				throw new IllegalStateException("A " + table + " record holds " + (table.recordSize - 4) + " bytes of fields, not "
+						+ record.position());
+			}
+			crc.reset();
+			crc.update(record.array(), 0, record.position());
+			record.putInt((int) crc.getValue()).flip();
+			write(record, channel.size());
+		}
+
+		private void write(ByteBuffer buffer, long position) throws IOException {
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+		}
+
+		/** Forces the records appended so far to disk */
+		public void force() throws IOException {
+			channel.force(false);
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/** Maps a table, cutting off a torn last record; fields are then read in place by row and byte offset */
+	public static class Reader {
+		private final BinarySnapshot.Table table;
+		private final int rowCount;
+		private final ByteBuffer records;
+
+		public Reader(File file, BinarySnapshot.Table table) throws IOException {
+			this.table = table;
+			MappedByteBuffer map;
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				checkHeader(channel, file, table);
+				long rows = (channel.size() - HEADER_SIZE) / table.recordSize;
+				// only the last record can have been torn by a crash, so it is checked and cut off before mapping the rest
+				if (rows > 0) {
+					ByteBuffer last = ByteBuffer.allocate(table.recordSize);
+					channel.read(last, HEADER_SIZE + (rows - 1) * table.recordSize);
+					if (!isIntact(last, 0, table)) {
+						rows--;
+					}
+				}
+				long intactLength = HEADER_SIZE + rows * table.recordSize;
+				if (channel.size() > intactLength) {
+					System.out.println(String.format("Dropping %d bytes of a torn record at the end of %s",
+							channel.size() - intactLength, file));
+					channel.truncate(intactLength);
+					channel.force(true);
+				}
+				map = channel.map(FileChannel.MapMode.READ_ONLY, 0, intactLength);
+				rowCount = Math.toIntExact(rows);
+			}
+			records = map.slice(HEADER_SIZE, rowCount * table.recordSize);
+			for (int row = 0; row < rowCount; row++) {
+				if (!isIntact(records, row * table.recordSize, table)) {
+					throw new IOException("Checksum mismatch in row " + row + " of " + file + ", the table is damaged");
+				}
+			}
+		}
+
+		private static boolean isIntact(ByteBuffer buffer, int offset, BinarySnapshot.Table table) {
+			CRC32C crc = new CRC32C();
+			crc.update(buffer.slice(offset, table.recordSize - 4));
+			return (int) crc.getValue() == buffer.getInt(offset + table.recordSize - 4);
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		public int getInt(int row, int offset) {
+			return records.getInt(row * table.recordSize + offset);
+		}
+
+		public long getLong(int row, int offset) {
+			return records.getLong(row * table.recordSize + offset);
+		}
+
+		public float getFloat(int row, int offset) {
+			return records.getFloat(row * table.recordSize + offset);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package newbank.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import static newbank.server.BinaryProtocol.MAX_FRAME_LENGTH;
+
+/**
+ * Serves one connection speaking the {@link BinaryProtocol}. Responses are buffered and only flushed once no further
+ * request is already waiting to be read, so a client pipelining requests gets its responses in as few writes as possible.
+ */
+public class BinaryClientHandler extends Thread {
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final BinaryRequestHandler requests = new BinaryRequestHandler();
+
+	public BinaryClientHandler(Socket s) throws IOException {
+		socket = s;
+		in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				int length = in.readInt();
+				if (length < 5 || length > MAX_FRAME_LENGTH) {
+					// not a frame of ours, the stream cannot be resynchronised
+					break;
+				}
+				byte[] frame = new byte[length];
+				in.readFully(frame);
+				requests.handle(frame, out);
+				if (in.available() == 0) {
+					out.flush();
+				}
+			}
+		} catch (EOFException | SocketException | SocketTimeoutException ignored) {
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package newbank.server;
+
+/**
+ * Constants of the binary protocol served on its own port next to the text menu.
+ * <p>
+ * Every request is one frame {@code [int length][int requestId][byte command][fields]} and gets exactly one response
+ * frame {@code [int length][int requestId][byte status][fields]}, where length counts the bytes after it. Strings are
+ * written as by {@link java.io.DataOutput#writeUTF} and amounts as a long number of pence. Requests on a connection are
+ * answered in order, so a client may send many before reading any responses.
+ * <p>
+ * Request fields and successful response fields per command:
+ * <ul>
+ * <li>LOGIN: username, password &rarr; int customerId</li>
+ * <li>LOGOUT: none &rarr; none</li>
+ * <li>LIST_ACCOUNTS: none &rarr; int count, then count times int id, name, long balance</li>
+ * <li>TRANSFER: fromAccount, toUsername, toAccount, long amount &rarr; long balance left in fromAccount</li>
+ * <li>BATCH_TRANSFER: int count, then count times the TRANSFER fields &rarr; int count, then count times byte OK and
+ * long balance left in fromAccount</li>
+ * </ul>
+ * Any status other than OK is followed by a message string. A batch is applied entirely or not at all; when it is not,
+ * the status is BATCH_REJECTED and the message is followed by int count, then count times the item's status and,
+ * unless that is OK, its message. Item messages name no customer or account, so even a batch of long names that is
+ * rejected item by item is answered within {@link #MAX_FRAME_LENGTH}.
+ */
+public final class BinaryProtocol {
+	public static final byte LOGIN = 1;
+	public static final byte LOGOUT = 2;
+	public static final byte LIST_ACCOUNTS = 3;
+	public static final byte TRANSFER = 4;
+	public static final byte BATCH_TRANSFER = 5;
+
+	public static final byte OK = 0;
+	public static final byte BAD_REQUEST = 1;
+	public static final byte NOT_LOGGED_IN = 2;
+	public static final byte LOGIN_FAILED = 3;
+	public static final byte NOT_FOUND = 4;
+	public static final byte INSUFFICIENT_FUNDS = 5;
+	public static final byte BATCH_REJECTED = 6;
+
+	/** Largest frame accepted, a peer sending more is disconnected */
+	public static final int MAX_FRAME_LENGTH = 64 * 1024;
+	/** Most transfers one BATCH_TRANSFER may carry */
+	public static final int MAX_BATCH_SIZE = 1000;
+
+	private BinaryProtocol() {
+	}
+}
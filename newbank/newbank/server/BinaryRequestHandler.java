@@ -0,0 +1,217 @@
+package newbank.server;
+
+import newbank.server.exception.transfer.InsufficientFundsException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.util.List;
+
+import static newbank.server.BinaryProtocol.*;
+
+/**
+ * The {@link BinaryProtocol} side of one connection: its session and the handling of each request frame, whichever
+ * front end reads the frames off the socket.
+ */
+class BinaryRequestHandler {
+	private final NewBank bank = NewBank.getBank();
+	private final Session session = new Session();
+	private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream(256);
+	private final DataOutputStream response = new DataOutputStream(responseBody);
+	private byte rejectStatus;
+	private String rejectMessage;
+	private String rejectItemMessage;
+
+	/** Handles one request frame, given without its length, and writes the response frame to out */
+	void handle(byte[] frame, DataOutputStream out) throws IOException {
+		DataInputStream request = new DataInputStream(new ByteArrayInputStream(frame));
+		int requestId = request.readInt();
+		byte command = request.readByte();
+		responseBody.reset();
+		byte status;
+		try {
+			status = switch (command) {
+				case LOGIN -> login(request.readUTF(), request.readUTF());
+				case LOGOUT -> logout();
+				case LIST_ACCOUNTS -> listAccounts();
+				case TRANSFER -> transfer(request.readUTF(), request.readUTF(), request.readUTF(), request.readLong());
+				case BATCH_TRANSFER -> batchTransfer(request);
+				default -> fail(BAD_REQUEST, "Unknown command " + command);
+			};
+		} catch (EOFException | UTFDataFormatException ex) {
+			status = fail(BAD_REQUEST, "Malformed request");
+		}
+		// a response echoing long names back could outgrow a frame, which the client would refuse
+		if (4 + 1 + responseBody.size() > MAX_FRAME_LENGTH) {
+			status = fail(BAD_REQUEST, "The response would be longer than " + MAX_FRAME_LENGTH + " bytes");
+		}
+		out.writeInt(4 + 1 + responseBody.size());
+		out.writeInt(requestId);
+		out.writeByte(status);
+		responseBody.writeTo(out);
+	}
+
+	private byte fail(byte status, String message) throws IOException {
+		responseBody.reset();
+		response.writeUTF(message);
+		return status;
+	}
+
+	private byte login(String username, String password) throws IOException {
+		Integer customerId = bank.usernameExists(username);
+		if (customerId == null || !bank.checkPassword(customerId, password)) {
+			return fail(LOGIN_FAILED, "Username or password incorrect");
+		}
+		bank.login(session, customerId);
+		response.writeInt(customerId);
+		return OK;
+	}
+
+	private byte logout() {
+		session.logout();
+		return OK;
+	}
+
+	private byte listAccounts() throws IOException {
+		if (!session.isLoggedIn()) {
+			return fail(NOT_LOGGED_IN, "Not logged in");
+		}
+		List<Account> accounts = session.getCustomer().copyAccounts();
+		response.writeInt(accounts.size());
+		for (Account account : accounts) {
+			response.writeInt(account.getId());
+			response.writeUTF(account.getName());
+			response.writeLong(account.getBalance());
+		}
+		return OK;
+	}
+
+	private byte transfer(String fromAccountName, String toUsername, String toAccountName, long amount) throws IOException {
+		if (!session.isLoggedIn()) {
+			return fail(NOT_LOGGED_IN, "Not logged in");
+		}
+		Account[] accounts = resolveTransfer(fromAccountName, toUsername, toAccountName, amount);
+		if (accounts == null) {
+			return fail(rejectStatus, rejectMessage);
+		}
+		try {
+			bank.transfer(accounts[0], accounts[1], amount);
+		} catch (InsufficientFundsException ex) {
+			return fail(INSUFFICIENT_FUNDS, ex.getMessage());
+		}
+		response.writeLong(accounts[0].getBalance());
+		return OK;
+	}
+
+	/** Checks every transfer of the batch first and applies them only if all are valid, as one unit */
+	private byte batchTransfer(DataInputStream request) throws IOException {
+		if (!session.isLoggedIn()) {
+			return fail(NOT_LOGGED_IN, "Not logged in");
+		}
+		int count = request.readInt();
+		if (count < 1 || count > MAX_BATCH_SIZE) {
+			return fail(BAD_REQUEST, "A batch must hold between 1 and " + MAX_BATCH_SIZE + " transfers");
+		}
+		Account[] fromAccounts = new Account[count];
+		Account[] toAccounts = new Account[count];
+		long[] amounts = new long[count];
+		byte[] statuses = new byte[count];
+		String[] messages = new String[count];
+		boolean valid = true;
+		for (int i = 0; i < count; i++) {
+			String fromAccountName = request.readUTF();
+			String toUsername = request.readUTF();
+			String toAccountName = request.readUTF();
+			amounts[i] = request.readLong();
+			Account[] accounts = resolveTransfer(fromAccountName, toUsername, toAccountName, amounts[i]);
+			if (accounts == null) {
+				statuses[i] = rejectStatus;
+				messages[i] = rejectItemMessage;
+				valid = false;
+			} else {
+				fromAccounts[i] = accounts[0];
+				toAccounts[i] = accounts[1];
+			}
+		}
+		if (!valid) {
+			return rejectBatch(statuses, messages);
+		}
+		long[] balances = bank.transferBatch(fromAccounts, toAccounts, amounts);
+		for (int i = 0; i < count; i++) {
+			if (balances[i] < 0) {
+				statuses[i] = INSUFFICIENT_FUNDS;
+				messages[i] = new InsufficientFundsException().getMessage();
+				valid = false;
+			}
+		}
+		if (!valid) {
+			return rejectBatch(statuses, messages);
+		}
+		response.writeInt(count);
+		for (long balance : balances) {
+			response.writeByte(OK);
+			response.writeLong(balance);
+		}
+		return OK;
+	}
+
+	private byte rejectBatch(byte[] statuses, String[] messages) throws IOException {
+		fail(BATCH_REJECTED, "No transfer in the batch was applied");
+		response.writeInt(statuses.length);
+		for (int i = 0; i < statuses.length; i++) {
+			response.writeByte(statuses[i]);
+			if (statuses[i] != OK) {
+				response.writeUTF(messages[i]);
+			}
+		}
+		return BATCH_REJECTED;
+	}
+
+	/**
+	 * Looks up the two accounts of a transfer from the logged-in customer. Transfers to another customer can only go to
+	 * their main account, as in the text menu.
+	 *
+	 * @return the donor and recipient accounts, or null with the reason left in rejectStatus and rejectMessage, and in
+	 * rejectItemMessage without the names, for echoing once per item of a batch
+	 */
+	private Account[] resolveTransfer(String fromAccountName, String toUsername, String toAccountName, long amount) {
+		if (amount <= 0) {
+			return reject(BAD_REQUEST, "Amount must be positive");
+		}
+		Customer customer = session.getCustomer();
+		Account fromAccount = customer.getAccountByName(fromAccountName);
+		if (fromAccount == null) {
+			return reject(NOT_FOUND, String.format("No account with the name \"%s\" exists", fromAccountName), "No such account");
+		}
+		Integer toCustomerId = bank.usernameExists(toUsername);
+		if (toCustomerId == null) {
+			return reject(NOT_FOUND, String.format("No customer with the username \"%s\" exists", toUsername), "No such customer");
+		}
+		if (toCustomerId != customer.getId() && !toAccountName.equals("main")) {
+			return reject(BAD_REQUEST, "Transfers to other customers go to their main account");
+		}
+		Account toAccount = bank.getCustomers().get(toCustomerId).getAccountByName(toAccountName);
+		if (toAccount == null) {
+			return reject(NOT_FOUND, String.format("No account with the name \"%s\" exists", toAccountName), "No such account");
+		}
+		if (toAccount == fromAccount) {
+			return reject(BAD_REQUEST, "Recipient account cannot be the same as donor account");
+		}
+		return new Account[] {fromAccount, toAccount};
+	}
+
+	private Account[] reject(byte status, String message) {
+		return reject(status, message, message);
+	}
+
+	private Account[] reject(byte status, String message, String itemMessage) {
+		rejectStatus = status;
+		rejectMessage = message;
+		rejectItemMessage = itemMessage;
+		return null;
+	}
+}
@@ -0,0 +1,234 @@
+package newbank.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary snapshot of one table: a header, fixed-size records and a heap holding the records' strings.
+ * <p>
+ * The 64-byte header is {@code [magic][version][table][recordSize][rowCount:long][heapOffset:long][heapLength:long]
+ * [recordsCrc][heapCrc][headerCrc]}, with CRC32C checksums over the records, the heap and the header itself. Records
+ * start right after the header, so row {@code n} is at {@code 64 + n * recordSize}; numbers are stored as they are and
+ * a string is an {@code [offset][length]} reference to UTF-8 bytes in the heap. A {@link Reader} maps the file and
+ * reads fields in place, and a {@link Writer} streams both sections to a temp file that replaces the live one
+ * atomically, like {@link SnapshotWriter}.
+ */
+public final class BinarySnapshot {
+	/** The tables a snapshot can hold, with the size of their records */
+	public enum Table {
+		/** id, username, password */
+		CUSTOMERS(1, 20),
+		/** id, customerId, name, balance */
+		ACCOUNTS(2, 24),
+		/** fromCustomerId, toCustomerId, amount, interest, repaid, expirySeconds, expiryNanos, crc; an {@link AppendableTable} */
+		MICROLOANS(3, 40),
+		/** id, customerId, amount, interestRate */
+		MICROLOAN_REQUESTS(4, 20),
+		/** id, customerId, amount, interestRate */
+		MICROLOAN_OFFERS(5, 20);
+
+		final int code;
+		final int recordSize;
+
+		Table(int code, int recordSize) {
+			this.code = code;
+			this.recordSize = recordSize;
+		}
+	}
+
+	private static final int MAGIC = 0x4E42534E;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_CHECKED_BYTES = 48;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private BinarySnapshot() {
+	}
+
+	/** Writes a table of a known number of rows; each row is started with {@link #next()} and its fields put in order */
+	public static class Writer implements Closeable {
+		private final Table table;
+		private final int rowCount;
+		private final Path target;
+		private final Path temp;
+		private final FileChannel channel;
+		private final ByteBuffer records = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final ByteBuffer heap = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final CRC32C recordsCrc = new CRC32C();
+		private final CRC32C heapCrc = new CRC32C();
+		private final long heapOffset;
+		private long recordsPosition = HEADER_SIZE;
+		private long heapLength;
+		private long heapFlushed;
+		private int rowsStarted;
+		private boolean committed;
+
+		public Writer(File file, Table table, int rowCount) throws IOException {
+			this.table = table;
+			this.rowCount = rowCount;
+			heapOffset = HEADER_SIZE + (long) rowCount * table.recordSize;
+			target = file.toPath();
+			temp = target.resolveSibling(target.getFileName() + ".tmp");
+			channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		}
+
+		/** Starts the next record, returning the buffer its numeric fields are put into */
+		public ByteBuffer next() throws IOException {
+			if (rowsStarted == rowCount) {
+				throw new IllegalStateException("All " + rowCount + " rows of " + table + " have been written");
+			}
+			if (records.remaining() < table.recordSize) {
+				flushRecords();
+			}
+			rowsStarted++;
+			return records;
+		}
+
+		/** Puts a reference to the string into the current record, and the string into the heap */
+		public void putString(String value) throws IOException {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			records.putInt(Math.toIntExact(heapLength)).putInt(bytes.length);
+			heapLength += bytes.length;
+			if (bytes.length > heap.remaining()) {
+				flushHeap();
+			}
+			if (bytes.length > heap.remaining()) {
+				ByteBuffer large = ByteBuffer.wrap(bytes);
+				heapCrc.update(large.duplicate());
+				write(large, heapOffset + heapFlushed);
+				heapFlushed += bytes.length;
+			} else {
+				heap.put(bytes);
+			}
+		}
+
+		private void flushRecords() throws IOException {
+			records.flip();
+			recordsCrc.update(records.duplicate());
+			recordsPosition += write(records, recordsPosition);
+			records.clear();
+		}
+
+		private void flushHeap() throws IOException {
+			heap.flip();
+			heapCrc.update(heap.duplicate());
+			heapFlushed += write(heap, heapOffset + heapFlushed);
+			heap.clear();
+		}
+
+		private int write(ByteBuffer buffer, long position) throws IOException {
+			int length = buffer.remaining();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			return length;
+		}
+
+		/** Writes the header and atomically replaces the target file */
+		public void commit() throws IOException {
+			if (rowsStarted != rowCount) {
+				throw new IllegalStateException("Wrote " + rowsStarted + " of " + rowCount + " rows of " + table);
+			}
+			flushRecords();
+			flushHeap();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(table.code).putInt(table.recordSize)
+					.putLong(rowCount).putLong(heapOffset).putLong(heapLength)
+					.putInt((int) recordsCrc.getValue()).putInt((int) heapCrc.getValue());
+			CRC32C headerCrc = new CRC32C();
+			headerCrc.update(header.array(), 0, HEADER_CHECKED_BYTES);
+			header.putInt((int) headerCrc.getValue());
+			header.clear();
+			write(header, 0);
+			channel.force(true);
+			channel.close();
+			committed = true;
+			SnapshotWriter.replace(temp, target);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!committed) {
+				channel.close();
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
+	/** Maps a table and checks its header and checksums; fields are then read in place by row and byte offset */
+	public static class Reader {
+		private final Table table;
+		private final int rowCount;
+		private final ByteBuffer records;
+		private final ByteBuffer heap;
+
+		public Reader(File file, Table table) throws IOException {
+			this.table = table;
+			MappedByteBuffer map;
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				if (channel.size() < HEADER_SIZE) {
+					throw new IOException("Truncated snapshot " + file);
+				}
+				map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			CRC32C crc = new CRC32C();
+			crc.update(map.slice(0, HEADER_CHECKED_BYTES));
+			if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || (int) crc.getValue() != map.getInt(HEADER_CHECKED_BYTES)) {
+				throw new IOException("Not a version " + VERSION + " snapshot: " + file);
+			}
+			if (map.getInt(8) != table.code || map.getInt(12) != table.recordSize) {
+				throw new IOException(file + " does not hold " + table);
+			}
+			rowCount = Math.toIntExact(map.getLong(16));
+			int heapOffset = Math.toIntExact(map.getLong(24));
+			int heapLength = Math.toIntExact(map.getLong(32));
+			if (heapOffset != HEADER_SIZE + rowCount * table.recordSize || heapOffset + (long) heapLength != map.capacity()) {
+				throw new IOException("Truncated snapshot " + file);
+			}
+			records = map.slice(HEADER_SIZE, heapOffset - HEADER_SIZE);
+			heap = map.slice(heapOffset, heapLength);
+			if (checksum(records) != map.getInt(40) || checksum(heap) != map.getInt(44)) {
+				throw new IOException("Checksum mismatch in " + file + ", the snapshot is damaged");
+			}
+		}
+
+		private static int checksum(ByteBuffer buffer) {
+			CRC32C crc = new CRC32C();
+			crc.update(buffer.duplicate());
+			return (int) crc.getValue();
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		public int getInt(int row, int offset) {
+			return records.getInt(row * table.recordSize + offset);
+		}
+
+		public long getLong(int row, int offset) {
+			return records.getLong(row * table.recordSize + offset);
+		}
+
+		public float getFloat(int row, int offset) {
+			return records.getFloat(row * table.recordSize + offset);
+		}
+
+		/** The string whose reference is at the given offset of the record */
+		public String getString(int row, int offset) {
+			int position = row * table.recordSize + offset;
+			byte[] bytes = new byte[records.getInt(position + 4)];
+			heap.get(records.getInt(position), bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
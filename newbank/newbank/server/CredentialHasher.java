@@ -0,0 +1,14 @@
+package newbank.server;
+
+/**
+ * Turns passwords into the string stored in customer.csv and checks passwords against it. Stored values must not contain
+ * ':' or ',' as they are written into the record files as is.
+ */
+public interface CredentialHasher {
+	String hash(String password);
+
+	boolean verify(String password, String stored);
+
+	/** Whether a stored value should be replaced by a fresh {@link #hash} the next time its password is verified */
+	boolean needsRehash(String stored);
+}
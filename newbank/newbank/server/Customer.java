@@ -2,22 +2,25 @@ package newbank.server;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class Customer {
 	private int id;
 	private String username;
-	private String password;
+	private volatile String password;
+	private volatile boolean dirty;
 	private ArrayList<Account> accounts;
+	private final HashMap<String, Account> accountsByName = new HashMap<>();
 
 	public Customer(int customerId) {
 		id = customerId;
 		accounts = new ArrayList<>();
 	}
 	
-	public Customer(HashMap<String, String> record) {
-		id = Integer.parseInt(record.get("id"));
-		username = record.get("username");
-		password = record.get("password");
+	public Customer(RecordReader record) {
+		id = record.getInt("id");
+		username = record.getString("username");
+		password = record.getString("password");
 		accounts = new ArrayList<>();
 	}
 
@@ -45,6 +48,27 @@ public class Customer {
 		this.password = password;
 	}
 	
+	/**
+	 * Marks the customer as changed since the last snapshot.
+	 *
+	 * @return false if it was already marked, so callers queue it for the next snapshot only once
+	 */
+	public boolean markDirty() {
+		if (dirty) {
+			return false;
+		}
+		dirty = true;
+		return true;
+	}
+
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public void clearDirty() {
+		dirty = false;
+	}
+
 	public String accountsToString() {
 		StringBuilder s = new StringBuilder();
 		for (Account a : accounts) {
@@ -53,20 +77,26 @@ public class Customer {
 		return s.toString();
 	}
 
-	public void addAccount(Account account) {
-		accounts.add(account);		
+	public synchronized void addAccount(Account account) {
+		accounts.add(account);
+		accountsByName.put(account.getName(), account);
+	}
+
+	public synchronized void removeAccount(int accountId) {
+		accounts.removeIf(x -> x.getId() == accountId);
+		accountsByName.values().removeIf(x -> x.getId() == accountId);
 	}
 
 	public ArrayList<Account> getAccounts() {
 		return accounts;
 	}
 
-	public Account getAccountByName(String name) {
-		for (Account account : accounts) {
-			if (account.getName().equals(name)) {
-				return account;
-			}
-		}
-		return null;
+	/** Copy of the accounts, safe to iterate while accounts are being added or removed */
+	public synchronized List<Account> copyAccounts() {
+		return new ArrayList<>(accounts);
+	}
+
+	public synchronized Account getAccountByName(String name) {
+		return accountsByName.get(name);
 	}
 }
@@ -2,124 +2,533 @@ package newbank.server;
 
 import newbank.server.microloan.MicroLoanRequest;
 import newbank.server.microloan.Microloan;
+import newbank.server.microloan.MicroloanOffer;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DatabaseHandler  {
-    private File customerFile = new File("newbank/customer.csv");
-    private File accountFile = new File("newbank/account.csv");
+    private final File customerFile;
+    private final File accountFile;
+    private final File journalFile;
+    private final File accountStoreFile;
+    private final File sequenceFile;
+    private final File microloanOfferFile;
+    private final File microloanFile;
+    private final File microloanRequestFile;
+    private final File customerSnapshot;
+    private final File accountSnapshot;
+    private final File microloanSnapshot;
+    private final File microloanRequestSnapshot;
+    private final File microloanOfferSnapshot;
+    /** Whether the tables are kept in {@link BinarySnapshot}s rather than CSV, decided by customer.bin existing */
+    private volatile boolean binaryFormat;
+
+    public DatabaseHandler() {
+        this(new File("newbank"));
+    }
+
+    /** Reads and writes the bank's files in the given directory */
+    public DatabaseHandler(File dataDirectory) {
+        customerFile = new File(dataDirectory, "customer.csv");
+        accountFile = new File(dataDirectory, "account.csv");
+        journalFile = new File(dataDirectory, "journal.bin");
+        accountStoreFile = new File(dataDirectory, "account_balance.bin");
+        sequenceFile = new File(dataDirectory, "sequence.csv");
+        microloanOfferFile = new File(dataDirectory, "microloan_offer.csv");
+        microloanFile = new File(dataDirectory, "microloan.csv");
+        microloanRequestFile = new File(dataDirectory, "microloan_request.csv");
+        customerSnapshot = new File(dataDirectory, "customer.bin");
+        accountSnapshot = new File(dataDirectory, "account.bin");
+        microloanSnapshot = new File(dataDirectory, "microloan.bin");
+        microloanRequestSnapshot = new File(dataDirectory, "microloan_request.bin");
+        microloanOfferSnapshot = new File(dataDirectory, "microloan_offer.bin");
+        binaryFormat = customerSnapshot.exists();
+    }
+
+    public boolean isBinaryFormat() {
+        return binaryFormat;
+    }
+
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    public File getAccountStoreFile() {
+        return accountStoreFile;
+    }
 
     public HashMap<Integer, Customer> getCustomers() {
+        if (binaryFormat) {
+            return readCustomers();
+        }
+        verify(customerFile);
         HashMap<Integer, Customer> customers = new HashMap<>();
-        ArrayList<HashMap<String, String>> records = getRecords(customerFile);
-        for (HashMap<String, String> record : records) {
-            customers.put(Integer.parseInt(record.get("id")), new Customer(record));
+        long startNanos = System.nanoTime();
+        try (RecordReader record = new RecordReader(customerFile)) {
+            while (record.next()) {
+                Customer customer = new Customer(record);
+                customers.put(customer.getId(), customer);
+            }
+            reportLoad(customerFile, record.getRowCount(), startNanos);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
         return customers;
     }
-    public List<Microloan> microloans (){
+    public List<Microloan> microloans (Map<Integer, Customer> customers){
+        if (binaryFormat) {
+            return readMicroloans(customers);
+        }
         List<Microloan> microLoanList = new ArrayList<>();
-        ArrayList<HashMap<String, String>> records = getRecords(new File("./newbank/microloan.csv"));
-        for (HashMap<String, String> record : records) {
-            if(record.isEmpty()){
-                continue;
-            }
-            Microloan microLoan= new Microloan();
-            microLoan.setLoaner(getCustomers().get(Integer.parseInt(record.get("fromCustomerId"))));
-            microLoan.setTaker(getCustomers().get(Integer.parseInt(record.get("toCustomerId"))));
-            microLoan.setRepaid(Boolean.parseBoolean((record.get("rePaid"))));
-            microLoan.setAmount(Float.parseFloat((record.get("amount"))));
-            microLoan.setInterest(Float.parseFloat((record.get("interestRate"))));
-            microLoan.setDateOfExpiry(record.get("expiryDate"));
-            microLoanList.add(microLoan);
+        long startNanos = System.nanoTime();
+        try (RecordReader record = new RecordReader(microloanFile)) {
+            while (record.next()) {
+                Microloan microLoan= new Microloan();
+                microLoan.setLoaner(customers.get(record.getInt("fromCustomerId")));
+                microLoan.setTaker(customers.get(record.getInt("toCustomerId")));
+                microLoan.setRepaid(record.getBoolean("rePaid"));
+                microLoan.setAmount(record.getPence("amount"));
+                microLoan.setInterest(record.getFloat("interestRate"));
+                microLoan.setDateOfExpiry(record.getString("expiryDate"));
+                microLoanList.add(microLoan);
+            }
+            reportLoad(microloanFile, record.getRowCount(), startNanos);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
         return microLoanList;
     }
 
-    public List<MicroLoanRequest> microLoanRequestList (){
+    /** Appends a microloan and syncs the file, so it is on disk when this returns */
+    public void storeMicroloan(Microloan microloan) throws IOException {
+        if (binaryFormat) {
+            try (AppendableTable.Appender appender = new AppendableTable.Appender(microloanSnapshot, BinarySnapshot.Table.MICROLOANS)) {
+                appendMicroloan(appender, microloan);
+                appender.force();
+            }
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(microloanFile, true);
+             BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("fromCustomerId:" + microloan.getLoaner().getId() + ",");
+            sb.append("toCustomerId:" + microloan.getTaker().getId() + ",");
+            sb.append("amount:" + Money.format(microloan.getAmount()) + ",");
+            sb.append("interestRate:" + microloan.getInterest() + ",");
+            sb.append("expiryDate:" + microloan.getDateOfExpiry() + ",");
+            sb.append("rePaid:" + microloan.getRepaid() + ",");
+            sb.append("\n");
+            bw.write(sb.toString());
+            bw.flush();
+            out.getFD().sync();
+        }
+    }
+
+    public List<MicroLoanRequest> microLoanRequestList (Map<Integer, Customer> customers){
+        if (binaryFormat) {
+            return readMicroloanRequests(customers);
+        }
         List<MicroLoanRequest> microLoanRequestList = new ArrayList<>();
-        ArrayList<HashMap<String, String>> records = getRecords(new File("./newbank/microloan_request.csv"));
-        for (HashMap<String, String> record : records) {
-            if(record.isEmpty()){
-                continue;
-            }
-            MicroLoanRequest microLoanRequest = new MicroLoanRequest();
-            microLoanRequest.setId(Integer.parseInt(record.get("id")));
-            microLoanRequest.setCustomer(getCustomers().get(Integer.parseInt(record.get("customerId"))));
-            microLoanRequest.setCustomerId(Integer.parseInt(record.get("customerId")));
-            microLoanRequest.setInterestRate(Float.parseFloat((record.get("interestRate"))));
-            microLoanRequest.setAmount(Float.parseFloat((record.get("amount"))));
-            microLoanRequestList.add(microLoanRequest);
+        File file = microloanRequestFile;
+        verify(file);
+        long startNanos = System.nanoTime();
+        try (RecordReader record = new RecordReader(file)) {
+            while (record.next()) {
+                MicroLoanRequest microLoanRequest = new MicroLoanRequest();
+                microLoanRequest.setId(record.getInt("id"));
+                microLoanRequest.setCustomer(customers.get(record.getInt("customerId")));
+                microLoanRequest.setCustomerId(record.getInt("customerId"));
+                microLoanRequest.setInterestRate(record.getFloat("interestRate"));
+                microLoanRequest.setAmount(record.getPence("amount"));
+                microLoanRequestList.add(microLoanRequest);
+            }
+            reportLoad(file, record.getRowCount(), startNanos);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
         return microLoanRequestList;
     }
 
+    public List<MicroloanOffer> microloanOffers() {
+        if (binaryFormat) {
+            return readMicroloanOffers();
+        }
+        verify(microloanOfferFile);
+        List<MicroloanOffer> microloanOffers = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        try (RecordReader record = new RecordReader(microloanOfferFile)) {
+            while (record.next()) {
+                MicroloanOffer microloanOffer = new MicroloanOffer();
+                microloanOffer.setId(record.getInt("id"));
+                microloanOffer.setCustomerId(record.getInt("customerId"));
+                microloanOffer.setAmount(record.getPence("amount"));
+                microloanOffer.setInterestRate(record.getFloat("interestRate"));
+                microloanOffers.add(microloanOffer);
+            }
+            reportLoad(microloanOfferFile, record.getRowCount(), startNanos);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return microloanOffers;
+    }
+
+    /** Atomically replaces the open microloan requests */
+    public void persistMicroloanRequests(Collection<MicroLoanRequest> microLoanRequests) throws IOException {
+        if (binaryFormat) {
+            writeMicroloanRequests(microLoanRequests);
+            return;
+        }
+        try (SnapshotWriter writer = new SnapshotWriter(microloanRequestFile)) {
+            StringBuilder sb = new StringBuilder();
+            for (MicroLoanRequest microLoanRequest : microLoanRequests) {
+                sb.setLength(0);
+                sb.append("id:").append(microLoanRequest.getId());
+                sb.append(",customerId:").append(microLoanRequest.getCustomerId());
+                Money.appendTo(sb.append(",amount:"), microLoanRequest.getAmount());
+                sb.append(",interestRate:").append(microLoanRequest.getInterestRate());
+                writer.write(sb);
+            }
+            writer.commit();
+        }
+    }
+
+    /** Atomically replaces the offer book */
+    public void persistMicroloanOffers(Collection<MicroloanOffer> microloanOffers) throws IOException {
+        if (binaryFormat) {
+            writeMicroloanOffers(microloanOffers);
+            return;
+        }
+        try (SnapshotWriter writer = new SnapshotWriter(microloanOfferFile)) {
+            StringBuilder sb = new StringBuilder();
+            for (MicroloanOffer microloanOffer : microloanOffers) {
+                sb.setLength(0);
+                sb.append("id:").append(microloanOffer.getId());
+                sb.append(",customerId:").append(microloanOffer.getCustomerId());
+                Money.appendTo(sb.append(",amount:"), microloanOffer.getAmount());
+                sb.append(",interestRate:").append(microloanOffer.getInterestRate());
+                writer.write(sb);
+            }
+            writer.commit();
+        }
+    }
+
+    private static void appendMicroloan(AppendableTable.Appender appender, Microloan microloan) throws IOException {
+        ByteBuffer record = appender.next().putInt(idOf(microloan.getLoaner())).putInt(idOf(microloan.getTaker()))
+                .putLong(microloan.getAmount()).putFloat(microloan.getInterest()).putInt(microloan.getRepaid() ? 1 : 0);
+        // the expiry is kept as a LocalDateTime's seconds and nanos, so the record has no strings and a fixed size
+        if (microloan.getDateOfExpiry() == null) {
+            record.putLong(Long.MIN_VALUE).putInt(0);
+        } else {
+            LocalDateTime expiry = LocalDateTime.parse(microloan.getDateOfExpiry());
+            record.putLong(expiry.toEpochSecond(ZoneOffset.UTC)).putInt(expiry.getNano());
+        }
+        appender.append();
+    }
+
+    /** A microloan whose customer no longer exists is stored with customer id 0, which never resolves */
+    private static int idOf(Customer customer) {
+        return customer == null ? 0 : customer.getId();
+    }
+
+    public HashMap<IdSequences.Entity, Long> getSequences() {
+        verify(sequenceFile);
+        HashMap<IdSequences.Entity, Long> sequences = new HashMap<>();
+        if (!sequenceFile.exists()) {
+            return sequences;
+        }
+        try (RecordReader record = new RecordReader(sequenceFile)) {
+            while (record.next()) {
+                sequences.put(IdSequences.Entity.valueOf(record.getString("name")), record.getLong("next"));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return sequences;
+    }
+
+    public void persistSequences(Map<IdSequences.Entity, Long> sequences) throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(sequenceFile)) {
+            for (Map.Entry<IdSequences.Entity, Long> sequence : sequences.entrySet()) {
+                writer.write("name:" + sequence.getKey() + ",next:" + sequence.getValue());
+            }
+            writer.commit();
+        }
+    }
+
     public HashMap<Integer, Account> getAccounts() {
+        if (binaryFormat) {
+            return readAccounts();
+        }
+        verify(accountFile);
         HashMap<Integer, Account> accounts = new HashMap<>();
-        ArrayList<HashMap<String, String>> records = getRecords(accountFile);
-        for (HashMap<String, String> record : records) {
-            accounts.put(Integer.parseInt(record.get("id")), new Account(record));
+        long startNanos = System.nanoTime();
+        try (RecordReader record = new RecordReader(accountFile)) {
+            while (record.next()) {
+                Account account = new Account(record);
+                accounts.put(account.getId(), account);
+            }
+            reportLoad(accountFile, record.getRowCount(), startNanos);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
         return accounts;
     }
 
-    private ArrayList<HashMap<String, String>> getRecords(File file) {
-        ArrayList<HashMap<String, String>> records = new ArrayList<>();
+    /** Refuses to load a snapshot that does not match its checksum, rather than start the bank from part of it */
+    private static void verify(File file) {
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] fields = line.split(",");
-                HashMap<String, String> record = new HashMap<>();
-                for (String field : fields) {
-                    String[] kvPair = field.split(":");
-                    record.put(kvPair[0], kvPair[1]);
-                }
-                records.add(record);
+            SnapshotWriter.verify(file);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void reportLoad(File file, long rows, long startNanos) {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        System.out.println(String.format("Loaded %d rows from %s in %d ms (%d rows/s)",
+                rows, file.getName(), elapsedNanos / 1_000_000, rows * 1_000_000_000L / elapsedNanos));
+    }
+
+    /** Atomically replaces customer.csv, so a crash while writing leaves the previous snapshot in place */
+    public void persistCustomers(Map<Integer, Customer> customers) throws IOException {
+        if (binaryFormat) {
+            writeCustomers(customers.values());
+            return;
+        }
+        try (SnapshotWriter writer = new SnapshotWriter(customerFile)) {
+            StringBuilder sb = new StringBuilder();
+            for (Customer customer : customers.values()) {
+                sb.setLength(0);
+                sb.append("id:").append(customer.getId());
+                sb.append(",username:").append(customer.getUsername());
+                sb.append(",password:").append(customer.getPassword());
+                writer.write(sb);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            writer.commit();
+        }
+    }
+
+    /** Atomically replaces account.csv; its balances are only a fallback for accounts missing from the account store */
+    public void persistAccounts(Map<Integer, Account> accounts) throws IOException {
+        if (binaryFormat) {
+            writeAccounts(accounts.values());
+            return;
+        }
+        try (SnapshotWriter writer = new SnapshotWriter(accountFile)) {
+            StringBuilder sb = new StringBuilder();
+            for (Account account : accounts.values()) {
+                sb.setLength(0);
+                sb.append("id:").append(account.getId());
+                sb.append(",customerId:").append(account.getCustomerId());
+                sb.append(",name:").append(account.getName());
+                Money.appendTo(sb.append(",balance:"), account.getBalance());
+                writer.write(sb);
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * Converts the CSV tables to binary snapshots, once. customer.bin is written last, so a conversion that stops
+     * part way leaves the bank on its CSV files; after it the CSV files are kept as they are, but no longer read.
+     */
+    public void convertToBinary() throws IOException {
+        if (binaryFormat) {
+            throw new IllegalStateException("Tables in " + customerFile.getParentFile() + " are already binary");
         }
-        return records;
+        HashMap<Integer, Customer> customers = getCustomers();
+        writeAccounts(getAccounts().values());
+        // a conversion that stopped part way may have left some microloans behind
+        Files.deleteIfExists(microloanSnapshot.toPath());
+        try (AppendableTable.Appender appender = new AppendableTable.Appender(microloanSnapshot, BinarySnapshot.Table.MICROLOANS)) {
+            for (Microloan microloan : microloans(customers)) {
+                appendMicroloan(appender, microloan);
+            }
+            appender.force();
+        }
+        writeMicroloanRequests(microLoanRequestList(customers));
+        writeMicroloanOffers(microloanOffers());
+        writeCustomers(customers.values());
+        binaryFormat = true;
+        reportConversion(customerFile, customerSnapshot);
+        reportConversion(accountFile, accountSnapshot);
+        reportConversion(microloanFile, microloanSnapshot);
+        reportConversion(microloanRequestFile, microloanRequestSnapshot);
+        reportConversion(microloanOfferFile, microloanOfferSnapshot);
+    }
+
+    private static void reportConversion(File csv, File snapshot) {
+        System.out.println(String.format("%-24s %12d bytes -> %-24s %12d bytes",
+                csv.getName(), csv.length(), snapshot.getName(), snapshot.length()));
     }
 
-    public void persistCustomers(HashMap<Integer, Customer> customers) {
+    /** Maps a binary table, or returns null if it has never been written; a damaged table stops the load */
+    private static BinarySnapshot.Reader openSnapshot(File file, BinarySnapshot.Table table) {
+        if (!file.exists()) {
+            return null;
+        }
         try {
-            FileWriter fw = new FileWriter(customerFile, false);
-            BufferedWriter bw = new BufferedWriter(fw);
-            for (Customer customer : customers.values()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append("id:" + customer.getId() + ",");
-                sb.append("username:" + customer.getUsername() + ",");
-                sb.append("password:" + customer.getPassword());
-                sb.append("\n");
-                bw.write(sb.toString());
-            }
-            bw.close();
+            return new BinarySnapshot.Reader(file, table);
         } catch (IOException ex) {
-            ex.printStackTrace();
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private HashMap<Integer, Customer> readCustomers() {
+        long startNanos = System.nanoTime();
+        BinarySnapshot.Reader snapshot = openSnapshot(customerSnapshot, BinarySnapshot.Table.CUSTOMERS);
+        int rows = snapshot == null ? 0 : snapshot.getRowCount();
+        HashMap<Integer, Customer> customers = new HashMap<>(rows * 4 / 3 + 1);
+        for (int row = 0; row < rows; row++) {
+            Customer customer = new Customer(snapshot.getInt(row, 0));
+            customer.setUsername(snapshot.getString(row, 4));
+            customer.setPassword(snapshot.getString(row, 12));
+            customers.put(customer.getId(), customer);
         }
+        reportLoad(customerSnapshot, rows, startNanos);
+        return customers;
     }
 
-    public void persistAccounts(HashMap<Integer, Account> accounts) {
+    private HashMap<Integer, Account> readAccounts() {
+        long startNanos = System.nanoTime();
+        BinarySnapshot.Reader snapshot = openSnapshot(accountSnapshot, BinarySnapshot.Table.ACCOUNTS);
+        int rows = snapshot == null ? 0 : snapshot.getRowCount();
+        HashMap<Integer, Account> accounts = new HashMap<>(rows * 4 / 3 + 1);
+        for (int row = 0; row < rows; row++) {
+            Account account = new Account(snapshot.getInt(row, 0));
+            account.setCustomerId(snapshot.getInt(row, 4));
+            account.setName(snapshot.getString(row, 8));
+            account.setBalance(snapshot.getLong(row, 16));
+            accounts.put(account.getId(), account);
+        }
+        reportLoad(accountSnapshot, rows, startNanos);
+        return accounts;
+    }
+
+    private List<Microloan> readMicroloans(Map<Integer, Customer> customers) {
+        if (!microloanSnapshot.exists()) {
+            return Collections.emptyList();
+        }
+        long startNanos = System.nanoTime();
+        AppendableTable.Reader table;
         try {
-            FileWriter fw = new FileWriter(accountFile, false);
-            BufferedWriter bw = new BufferedWriter(fw);
-            for (Account account : accounts.values()) {
-                StringBuilder sb = new StringBuilder();
-                sb.append("id:" + account.getId() + ",");
-                sb.append("customerId:" + account.getCustomerId() + ",");
-                sb.append("name:" + account.getName() + ",");
-                sb.append("balance:" + account.getBalance());
-                sb.append("\n");
-                bw.write(sb.toString());
-            }
-            bw.close();
+            table = new AppendableTable.Reader(microloanSnapshot, BinarySnapshot.Table.MICROLOANS);
         } catch (IOException ex) {
-            ex.printStackTrace();
+            throw new UncheckedIOException(ex);
+        }
+        List<Microloan> microloans = new ArrayList<>(table.getRowCount());
+        for (int row = 0; row < table.getRowCount(); row++) {
+            Microloan microloan = new Microloan();
+            microloan.setLoaner(customers.get(table.getInt(row, 0)));
+            microloan.setTaker(customers.get(table.getInt(row, 4)));
+            microloan.setAmount(table.getLong(row, 8));
+            microloan.setInterest(table.getFloat(row, 16));
+            microloan.setRepaid(table.getInt(row, 20) != 0);
+            long expirySeconds = table.getLong(row, 24);
+            if (expirySeconds != Long.MIN_VALUE) {
+                microloan.setDateOfExpiry(LocalDateTime.ofEpochSecond(expirySeconds, table.getInt(row, 32), ZoneOffset.UTC).toString());
+            }
+            microloans.add(microloan);
+        }
+        reportLoad(microloanSnapshot, table.getRowCount(), startNanos);
+        return microloans;
+    }
+
+    private List<MicroLoanRequest> readMicroloanRequests(Map<Integer, Customer> customers) {
+        long startNanos = System.nanoTime();
+        BinarySnapshot.Reader snapshot = openSnapshot(microloanRequestSnapshot, BinarySnapshot.Table.MICROLOAN_REQUESTS);
+        if (snapshot == null) {
+            return Collections.emptyList();
+        }
+        List<MicroLoanRequest> requests = new ArrayList<>(snapshot.getRowCount());
+        for (int row = 0; row < snapshot.getRowCount(); row++) {
+            MicroLoanRequest request = new MicroLoanRequest();
+            request.setId(snapshot.getInt(row, 0));
+            request.setCustomerId(snapshot.getInt(row, 4));
+            request.setCustomer(customers.get(request.getCustomerId()));
+            request.setAmount(snapshot.getLong(row, 8));
+            request.setInterestRate(snapshot.getFloat(row, 16));
+            requests.add(request);
+        }
+        reportLoad(microloanRequestSnapshot, snapshot.getRowCount(), startNanos);
+        return requests;
+    }
+
+    private List<MicroloanOffer> readMicroloanOffers() {
+        long startNanos = System.nanoTime();
+        BinarySnapshot.Reader snapshot = openSnapshot(microloanOfferSnapshot, BinarySnapshot.Table.MICROLOAN_OFFERS);
+        if (snapshot == null) {
+            return Collections.emptyList();
+        }
+        List<MicroloanOffer> offers = new ArrayList<>(snapshot.getRowCount());
+        for (int row = 0; row < snapshot.getRowCount(); row++) {
+            MicroloanOffer offer = new MicroloanOffer();
+            offer.setId(snapshot.getInt(row, 0));
+            offer.setCustomerId(snapshot.getInt(row, 4));
+            offer.setAmount(snapshot.getLong(row, 8));
+            offer.setInterestRate(snapshot.getFloat(row, 16));
+            offers.add(offer);
+        }
+        reportLoad(microloanOfferSnapshot, snapshot.getRowCount(), startNanos);
+        return offers;
+    }
+
+    // the row count goes in the header before the rows, so each table is copied out of its live collection first
+
+    private void writeCustomers(Collection<Customer> customers) throws IOException {
+        List<Customer> rows = new ArrayList<>(customers);
+        try (BinarySnapshot.Writer writer = new BinarySnapshot.Writer(customerSnapshot, BinarySnapshot.Table.CUSTOMERS, rows.size())) {
+            for (Customer customer : rows) {
+                writer.next().putInt(customer.getId());
+                writer.putString(customer.getUsername());
+                writer.putString(customer.getPassword());
+            }
+            writer.commit();
+        }
+    }
+
+    private void writeAccounts(Collection<Account> accounts) throws IOException {
+        List<Account> rows = new ArrayList<>(accounts);
+        try (BinarySnapshot.Writer writer = new BinarySnapshot.Writer(accountSnapshot, BinarySnapshot.Table.ACCOUNTS, rows.size())) {
+            for (Account account : rows) {
+                ByteBuffer record = writer.next().putInt(account.getId()).putInt(account.getCustomerId());
+                writer.putString(account.getName());
+                record.putLong(account.getBalance());
+            }
+            writer.commit();
+        }
+    }
+
+    private void writeMicroloanRequests(Collection<MicroLoanRequest> microLoanRequests) throws IOException {
+        List<MicroLoanRequest> rows = new ArrayList<>(microLoanRequests);
+        try (BinarySnapshot.Writer writer = new BinarySnapshot.Writer(microloanRequestSnapshot, BinarySnapshot.Table.MICROLOAN_REQUESTS, rows.size())) {
+            for (MicroLoanRequest request : rows) {
+                writer.next().putInt(request.getId()).putInt(request.getCustomerId())
+                        .putLong(request.getAmount()).putFloat(request.getInterestRate());
+            }
+            writer.commit();
+        }
+    }
+
+    private void writeMicroloanOffers(Collection<MicroloanOffer> microloanOffers) throws IOException {
+        List<MicroloanOffer> rows = new ArrayList<>(microloanOffers);
+        try (BinarySnapshot.Writer writer = new BinarySnapshot.Writer(microloanOfferSnapshot, BinarySnapshot.Table.MICROLOAN_OFFERS, rows.size())) {
+            for (MicroloanOffer offer : rows) {
+                writer.next().putInt(offer.getId()).putInt(offer.getCustomerId())
+                        .putLong(offer.getAmount()).putFloat(offer.getInterestRate());
+            }
+            writer.commit();
         }
     }
 }
@@ -0,0 +1,70 @@
+package newbank.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ids for new customers, accounts and microloan requests from one atomic counter per entity type.
+ * <p>
+ * Ids are reserved on disk a block at a time, so allocating an id is a single atomic increment and only one call per
+ * block writes the new high-water mark. After a crash the counters restart from the persisted high-water mark, which
+ * may leave a gap but never reuses an id.
+ */
+public class IdSequences {
+	public enum Entity {
+		CUSTOMER,
+		ACCOUNT,
+		MICROLOAN_REQUEST
+	}
+
+	private static final int BLOCK_SIZE = 1000;
+
+	private final DatabaseHandler databaseHandler;
+	private final EnumMap<Entity, AtomicLong> next = new EnumMap<>(Entity.class);
+	private final EnumMap<Entity, AtomicLong> reservedUpTo = new EnumMap<>(Entity.class);
+
+	/**
+	 * @param maxIdsInUse the highest id currently loaded for each entity type
+	 */
+	public IdSequences(DatabaseHandler databaseHandler, Map<Entity, Integer> maxIdsInUse) {
+		this.databaseHandler = databaseHandler;
+		Map<Entity, Long> persisted = databaseHandler.getSequences();
+		for (Entity entity : Entity.values()) {
+			long start = Math.max(maxIdsInUse.getOrDefault(entity, 0) + 1L, persisted.getOrDefault(entity, 1L));
+			next.put(entity, new AtomicLong(start));
+			reservedUpTo.put(entity, new AtomicLong(start));
+		}
+	}
+
+	public int nextId(Entity entity) {
+		long id = next.get(entity).getAndIncrement();
+		if (id >= reservedUpTo.get(entity).get()) {
+			reserve(entity, id);
+		}
+		return Math.toIntExact(id);
+	}
+
+	private synchronized void reserve(Entity entity, long id) {
+		long reserved = reservedUpTo.get(entity).get();
+		if (id < reserved) {
+			return;
+		}
+		while (reserved <= id) {
+			reserved += BLOCK_SIZE;
+		}
+		EnumMap<Entity, Long> highWaterMarks = new EnumMap<>(Entity.class);
+		for (Entity each : Entity.values()) {
+			highWaterMarks.put(each, each == entity ? reserved : reservedUpTo.get(each).get());
+		}
+		try {
+			databaseHandler.persistSequences(highWaterMarks);
+		} catch (IOException ex) {
+			// handing out ids past a mark that was never saved could reuse them after a restart
+			throw new UncheckedIOException(ex);
+		}
+		reservedUpTo.get(entity).set(reserved);
+	}
+}
@@ -0,0 +1,356 @@
+package newbank.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary log of every change to customers and accounts made since the last snapshot.
+ * <p>
+ * Each record is framed as {@code [length][type][payload][crc32]} and carries absolute state (e.g. the new balance
+ * rather than a delta), so replaying a record that is already reflected in the snapshot is harmless. Records are
+ * buffered in memory by {@link #append}; {@link #sync} writes everything appended so far in one go, so concurrent
+ * callers waiting on the same sync share a single write and fsync (group commit).
+ * <p>
+ * Once records are as durable as the fsync policy makes them, they are passed in journal order to the visitor given
+ * at construction. Anything kept elsewhere and updated from there, such as the account store, therefore never gets
+ * ahead of the journal that replays it after a crash.
+ * <p>
+ * Records are appended to the active segment, the journal file itself. A {@link #checkpoint} seals it as
+ * {@code <file>.<n>} and starts a new one, then writes the snapshot while appends carry on, and only deletes the sealed
+ * segments once the snapshot is written. Replay reads the sealed segments oldest first, then the active one.
+ */
+public class Journal {
+	public enum FsyncPolicy {
+		/** Force to disk on every sync, nothing acknowledged can be lost */
+		ALWAYS,
+		/** Write on every sync but force to disk periodically via {@link #force()} */
+		INTERVAL,
+		/** Leave flushing to the operating system */
+		NEVER
+	}
+
+	/** Writes the snapshot that a checkpoint replaces the journal with */
+	public interface Snapshot {
+		void write() throws IOException;
+	}
+
+	/** Receives journal records during replay */
+	public interface Visitor {
+		void customerCreated(int id, String username, String password);
+
+		void passwordChanged(int id, String password);
+
+		void accountCreated(int id, int customerId, String name, long balance);
+
+		void accountDeleted(int id);
+
+		void balanceChanged(int accountId, long balance);
+	}
+
+	private static final byte CUSTOMER_CREATED = 1;
+	private static final byte ACCOUNT_CREATED = 2;
+	private static final byte ACCOUNT_DELETED = 3;
+	private static final byte BALANCE_CHANGED = 4;
+	private static final byte PASSWORD_CHANGED = 5;
+
+	private final Path path;
+	/** The active segment; only replaced holding syncLock, which every write to it holds too */
+	private volatile FileChannel channel;
+	private final FsyncPolicy fsyncPolicy;
+	private final Visitor durable;
+	private final Object appendLock = new Object();
+	private final Object syncLock = new Object();
+	private final Object checkpointLock = new Object();
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private long appendedSeq;
+	private long syncedSeq;
+	/** Records written but not yet forced under {@link FsyncPolicy#INTERVAL}, passed on at the next {@link #force()} */
+	private ByteArrayOutputStream unforced = new ByteArrayOutputStream();
+
+	/**
+	 * @param durable receives every record once it has been written and, unless the policy is NEVER, forced
+	 */
+	private static FileChannel open(Path segment) throws IOException {
+		return FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	public Journal(File file, FsyncPolicy fsyncPolicy, Visitor durable) throws IOException {
+		this.path = file.toPath();
+		this.channel = open(path);
+		this.fsyncPolicy = fsyncPolicy;
+		this.durable = durable;
+	}
+
+	public long customerCreated(int id, String username, String password) {
+		return append(CUSTOMER_CREATED, out -> {
+			out.writeInt(id);
+			out.writeUTF(username);
+			out.writeUTF(password);
+		});
+	}
+
+	public long passwordChanged(int id, String password) {
+		return append(PASSWORD_CHANGED, out -> {
+			out.writeInt(id);
+			out.writeUTF(password);
+		});
+	}
+
+	public long accountCreated(int id, int customerId, String name, long balance) {
+		return append(ACCOUNT_CREATED, out -> {
+			out.writeInt(id);
+			out.writeInt(customerId);
+			out.writeUTF(name);
+			out.writeLong(balance);
+		});
+	}
+
+	public long accountDeleted(int id) {
+		return append(ACCOUNT_DELETED, out -> out.writeInt(id));
+	}
+
+	public long balanceChanged(int accountId, long balance) {
+		return append(BALANCE_CHANGED, out -> {
+			out.writeInt(accountId);
+			out.writeLong(balance);
+		});
+	}
+
+	private interface Payload {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/** Buffers a record and returns its sequence number, to be passed to {@link #sync(long)} */
+	private long append(byte type, Payload payload) {
+		try {
+			ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(body);
+			out.writeByte(type);
+			payload.write(out);
+			byte[] bytes = body.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			synchronized (appendLock) {
+				DataOutputStream framed = new DataOutputStream(pending);
+				framed.writeInt(bytes.length);
+				framed.write(bytes);
+				framed.writeInt((int) crc.getValue());
+				return ++appendedSeq;
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/** Blocks until the record with the given sequence number, and everything before it, has been written */
+	public void sync(long seq) {
+		synchronized (syncLock) {
+			if (syncedSeq >= seq) {
+				return;
+			}
+			try {
+				syncedSeq = writePending();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+	private long writePending() throws IOException {
+		byte[] bytes;
+		long seq;
+		synchronized (appendLock) {
+			bytes = pending.toByteArray();
+			pending = new ByteArrayOutputStream();
+			seq = appendedSeq;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, channel.size());
+		}
+		switch (fsyncPolicy) {
+			case ALWAYS -> {
+				channel.force(false);
+				publish(bytes);
+			}
+			case INTERVAL -> unforced.write(bytes);
+			case NEVER -> publish(bytes);
+		}
+		return seq;
+	}
+
+	/** Must be called holding syncLock, so records are published in the order they were written */
+	private void publish(byte[] bytes) throws IOException {
+		if (bytes.length > 0) {
+			readRecords(ByteBuffer.wrap(bytes), durable);
+		}
+	}
+
+	/** Forces written records to disk, used by the periodic flush under {@link FsyncPolicy#INTERVAL} */
+	public void force() throws IOException {
+		synchronized (syncLock) {
+			forceWritten();
+		}
+	}
+
+	private void forceWritten() throws IOException {
+		channel.force(false);
+		byte[] bytes = unforced.toByteArray();
+		unforced = new ByteArrayOutputStream();
+		publish(bytes);
+	}
+
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	/** Size of the active segment, which is what a checkpoint would move out of the way */
+	public long size() throws IOException {
+		synchronized (syncLock) {
+			return channel.size();
+		}
+	}
+
+	/**
+	 * Writes a snapshot and drops the journal it replaces. Everything appended before the call is sealed in its own
+	 * segment first, so the snapshot, which is taken afterwards, holds all of it; changes made while it is written go
+	 * to the new segment and are replayed on top of it. Appends are never held up, and syncs only while the segment is
+	 * switched.
+	 */
+	public void checkpoint(Snapshot writeSnapshot) throws IOException {
+		synchronized (checkpointLock) {
+			int sealed;
+			synchronized (syncLock) {
+				syncedSeq = writePending();
+				forceWritten();
+				sealed = seal();
+			}
+			// a failed snapshot throws before any sealed segment is deleted, so nothing is lost; the next one deletes them
+			writeSnapshot.write();
+			for (int segment : sealedSegments()) {
+				if (segment <= sealed) {
+					Files.delete(segment(segment));
+				}
+			}
+			forceDirectory();
+		}
+	}
+
+	/** Renames the active segment to the next sealed name and starts an empty one, returning the sealed number */
+	private int seal() throws IOException {
+		List<Integer> existing = sealedSegments();
+		int sealed = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+		FileChannel previous = channel;
+		Files.move(path, segment(sealed), StandardCopyOption.ATOMIC_MOVE);
+		channel = open(path);
+		forceDirectory();
+		previous.close();
+		return sealed;
+	}
+
+	private Path segment(int number) {
+		return path.resolveSibling(path.getFileName() + "." + number);
+	}
+
+	/** Numbers of the sealed segments on disk, oldest first */
+	private List<Integer> sealedSegments() throws IOException {
+		String prefix = path.getFileName() + ".";
+		List<Integer> segments = new ArrayList<>();
+		try (Stream<Path> files = Files.list(path.toAbsolutePath().getParent())) {
+			files.map(file -> file.getFileName().toString())
+					.filter(name -> name.startsWith(prefix) && name.length() > prefix.length()
+							&& name.substring(prefix.length()).chars().allMatch(Character::isDigit))
+					.forEach(name -> segments.add(Integer.parseInt(name.substring(prefix.length()))));
+		}
+		segments.sort(null);
+		return segments;
+	}
+
+	private void forceDirectory() throws IOException {
+		try (FileChannel directory = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+	}
+
+	/**
+	 * Replays every intact record in order, sealed segments first. A torn or corrupt tail of a segment is discarded,
+	 * as it can only be the last write before a crash.
+	 */
+	public void replay(Visitor visitor) throws IOException {
+		for (int segment : sealedSegments()) {
+			try (FileChannel sealed = open(segment(segment))) {
+				replay(sealed, visitor);
+			}
+		}
+		replay(channel, visitor);
+	}
+
+	private static void replay(FileChannel channel, Visitor visitor) throws IOException {
+		long size = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		long validLength = readRecords(buffer, visitor);
+		if (validLength < size) {
+			channel.truncate(validLength);
+		}
+	}
+
+	/** Applies the intact records at the start of the buffer, returning how many bytes they take */
+	private static long readRecords(ByteBuffer buffer, Visitor visitor) throws IOException {
+		long validLength = 0;
+		while (buffer.remaining() >= 4) {
+			int length = buffer.getInt();
+			if (length <= 0 || buffer.remaining() < length + 4) {
+				break;
+			}
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			if ((int) crc.getValue() != buffer.getInt()) {
+				break;
+			}
+			apply(bytes, visitor);
+			validLength = buffer.position();
+		}
+		return validLength;
+	}
+
+	private static void apply(byte[] bytes, Visitor visitor) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		byte type = in.readByte();
+		switch (type) {
+			case CUSTOMER_CREATED -> visitor.customerCreated(in.readInt(), in.readUTF(), in.readUTF());
+			case PASSWORD_CHANGED -> visitor.passwordChanged(in.readInt(), in.readUTF());
+			case ACCOUNT_CREATED -> visitor.accountCreated(in.readInt(), in.readInt(), in.readUTF(), in.readLong());
+			case ACCOUNT_DELETED -> visitor.accountDeleted(in.readInt());
+			case BALANCE_CHANGED -> visitor.balanceChanged(in.readInt(), in.readLong());
+			default -> throw new EOFException("Unknown journal record type " + type);
+		}
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,251 @@
+package newbank.server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms for the bank's operations, connected sessions and account lock waits.
+ * <p>
+ * Recording is lock-free: a couple of {@link LongAdder} increments and one histogram bucket. The numbers are published
+ * as MXBeans under the {@code newbank} domain and, when a port is given, as plain text on
+ * {@code http://localhost:<port>/metrics} in the Prometheus exposition format, with latencies in microseconds.
+ */
+public final class Metrics {
+	public enum Operation {
+		LOGIN,
+		REGISTER,
+		INTERNAL_TRANSFER,
+		EXTERNAL_TRANSFER,
+		PERSIST,
+		MICROLOAN_ACCEPT,
+		MICROLOAN_OFFER_CHOICE;
+
+		final String label = name().toLowerCase(Locale.ROOT);
+	}
+
+	public interface OperationMXBean {
+		long getCount();
+
+		long getFailures();
+
+		double getMeanMicros();
+
+		long getP50Micros();
+
+		long getP99Micros();
+
+		long getP999Micros();
+
+		long getMaxMicros();
+	}
+
+	public interface ServerMXBean {
+		long getActiveSessions();
+
+		long getLockWaits();
+
+		double getLockWaitMeanMicros();
+
+		long getLockWaitP99Micros();
+
+		long getLockWaitMaxMicros();
+	}
+
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	private static final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+	private static final LongAdder[] failures = new LongAdder[Operation.values().length];
+	private static final LongAdder activeSessions = new LongAdder();
+	/** Only acquisitions that found the lock taken are recorded, so the count is the number of contended waits */
+	private static final LatencyHistogram lockWaits = new LatencyHistogram();
+	private static boolean mbeansRegistered;
+
+	static {
+		for (Operation operation : Operation.values()) {
+			latencies[operation.ordinal()] = new LatencyHistogram();
+			failures[operation.ordinal()] = new LongAdder();
+		}
+	}
+
+	private Metrics() {
+	}
+
+	/** Records one call of an operation that started at {@code startNanos}, from {@link System#nanoTime()} */
+	public static void record(Operation operation, long startNanos, boolean succeeded) {
+		latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+		if (!succeeded) {
+			failures[operation.ordinal()].increment();
+		}
+	}
+
+	public static void sessionOpened() {
+		activeSessions.increment();
+	}
+
+	public static void sessionClosed() {
+		activeSessions.decrement();
+	}
+
+	public static void lockWaited(long nanos) {
+		lockWaits.record(nanos);
+	}
+
+	public static LatencyHistogram getLatencies(Operation operation) {
+		return latencies[operation.ordinal()];
+	}
+
+	public static long getFailures(Operation operation) {
+		return failures[operation.ordinal()].sum();
+	}
+
+	public static long getActiveSessions() {
+		return activeSessions.sum();
+	}
+
+	public static LatencyHistogram getLockWaits() {
+		return lockWaits;
+	}
+
+	/** Registers one MXBean per operation and one for the server; later calls do nothing */
+	public static synchronized void registerMBeans() {
+		if (mbeansRegistered) {
+			return;
+		}
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (Operation operation : Operation.values()) {
+				mbeans.registerMBean(new OperationStats(operation), new ObjectName("newbank:type=Operation,name=" + operation.label));
+			}
+			mbeans.registerMBean(new ServerStats(), new ObjectName("newbank:type=Server"));
+		} catch (JMException ex) {
+			throw new IllegalStateException(ex);
+		}
+		mbeansRegistered = true;
+	}
+
+	/** Serves {@link #scrape()} on the loopback interface only, so the numbers are not exposed to clients */
+	public static HttpServer startHttpEndpoint(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/metrics", exchange -> {
+			byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+		});
+		server.start();
+		return server;
+	}
+
+	/** All metrics in the Prometheus text format */
+	public static String scrape() {
+		StringBuilder sb = new StringBuilder(4096);
+		sb.append("# TYPE newbank_operation_latency_microseconds summary\n");
+		for (Operation operation : Operation.values()) {
+			appendSummary(sb, "newbank_operation_latency_microseconds", "operation=\"" + operation.label + "\"", getLatencies(operation));
+		}
+		sb.append("# TYPE newbank_operation_failures_total counter\n");
+		for (Operation operation : Operation.values()) {
+			sb.append("newbank_operation_failures_total{operation=\"").append(operation.label).append("\"} ")
+					.append(getFailures(operation)).append('\n');
+		}
+		sb.append("# TYPE newbank_active_sessions gauge\n");
+		sb.append("newbank_active_sessions ").append(getActiveSessions()).append('\n');
+		sb.append("# TYPE newbank_lock_wait_microseconds summary\n");
+		appendSummary(sb, "newbank_lock_wait_microseconds", null, lockWaits);
+		return sb.toString();
+	}
+
+	private static void appendSummary(StringBuilder sb, String name, String labels, LatencyHistogram histogram) {
+		String prefix = labels == null ? "" : labels + ",";
+		String suffix = labels == null ? " " : "{" + labels + "} ";
+		for (double quantile : QUANTILES) {
+			sb.append(name).append('{').append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+					.append(histogram.getPercentile(quantile) / 1000).append('\n');
+		}
+		sb.append(name).append("_sum").append(suffix).append(histogram.getSum() / 1000).append('\n');
+		sb.append(name).append("_count").append(suffix).append(histogram.getCount()).append('\n');
+	}
+
+	private static class OperationStats implements OperationMXBean {
+		private final Operation operation;
+
+		OperationStats(Operation operation) {
+			this.operation = operation;
+		}
+
+		@Override
+		public long getCount() {
+			return getLatencies(operation).getCount();
+		}
+
+		@Override
+		public long getFailures() {
+			return Metrics.getFailures(operation);
+		}
+
+		@Override
+		public double getMeanMicros() {
+			return getLatencies(operation).getMean() / 1000;
+		}
+
+		@Override
+		public long getP50Micros() {
+			return getLatencies(operation).getPercentile(0.5) / 1000;
+		}
+
+		@Override
+		public long getP99Micros() {
+			return getLatencies(operation).getPercentile(0.99) / 1000;
+		}
+
+		@Override
+		public long getP999Micros() {
+			return getLatencies(operation).getPercentile(0.999) / 1000;
+		}
+
+		@Override
+		public long getMaxMicros() {
+			return getLatencies(operation).getMax() / 1000;
+		}
+	}
+
+	private static class ServerStats implements ServerMXBean {
+		@Override
+		public long getActiveSessions() {
+			return Metrics.getActiveSessions();
+		}
+
+		@Override
+		public long getLockWaits() {
+			return lockWaits.getCount();
+		}
+
+		@Override
+		public double getLockWaitMeanMicros() {
+			return lockWaits.getMean() / 1000;
+		}
+
+		@Override
+		public long getLockWaitP99Micros() {
+			return lockWaits.getPercentile(0.99) / 1000;
+		}
+
+		@Override
+		public long getLockWaitMaxMicros() {
+			return lockWaits.getMax() / 1000;
+		}
+	}
+}
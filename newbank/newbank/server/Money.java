@@ -0,0 +1,143 @@
+package newbank.server;
+
+/**
+ * Money is held as a primitive long number of pence everywhere in the bank, so arithmetic is exact and needs no
+ * boxing. This class converts between pence and the pounds-and-pence text used in menus and record files.
+ */
+public final class Money {
+	private Money() {
+	}
+
+	/**
+	 * Parses an amount such as {@code 12}, {@code 12.5} or {@code -3.05} exactly.
+	 *
+	 * @throws NumberFormatException if the text is not a number or has more than two decimal places
+	 */
+	public static long parse(String text) {
+		return parse(text, 0, text.length(), false);
+	}
+
+	/**
+	 * Parses an amount a customer typed in for a deposit or a transfer, which must be above zero.
+	 *
+	 * @throws NumberFormatException if the text is not a valid amount, or is zero or negative
+	 */
+	public static long parsePositive(String text) {
+		long pence = parse(text);
+		if (pence <= 0) {
+			throw new NumberFormatException("Amount must be above zero");
+		}
+		return pence;
+	}
+
+	/**
+	 * Parses the amount in {@code chars[start, end)}. With {@code rounding} set, digits beyond the second decimal place
+	 * are rounded half up instead of rejected, and an exponent such as the one in {@code 1.0E7} is accepted, for
+	 * snapshots written back when balances were doubles and loan amounts floats.
+	 */
+	public static long parse(CharSequence chars, int start, int end, boolean rounding) {
+		int position = start;
+		boolean negative = position < end && chars.charAt(position) == '-';
+		if (negative) {
+			position++;
+		}
+		int mantissaEnd = end;
+		int exponent = 0;
+		if (rounding) {
+			for (int i = position; i < end; i++) {
+				char c = chars.charAt(i);
+				if (c == 'E' || c == 'e') {
+					mantissaEnd = i;
+					exponent = parseExponent(chars, i + 1, end, start);
+					break;
+				}
+			}
+		}
+		int point = mantissaEnd;
+		for (int i = position; i < mantissaEnd; i++) {
+			if (chars.charAt(i) == '.') {
+				point = i;
+				break;
+			}
+		}
+		// each digit's place after the exponent has moved the point: 0 for units, 1 for tenths, 2 for pence
+		long pence = 0;
+		int lastPlace = 2;
+		boolean hasDigits = false;
+		boolean roundUp = false;
+		for (; position < mantissaEnd; position++) {
+			if (position == point) {
+				continue;
+			}
+			char c = chars.charAt(position);
+			if (c < '0' || c > '9') {
+				throw invalid(chars, start, end);
+			}
+			hasDigits = true;
+			int place = (position < point ? position - point + 1 : position - point) - exponent;
+			if (place > 2) {
+				if (!rounding) {
+					throw new NumberFormatException("Amounts can have at most two decimal places");
+				}
+				if (place == 3) {
+					roundUp = c >= '5';
+				}
+				continue;
+			}
+			pence = Math.addExact(Math.multiplyExact(pence, 10), c - '0');
+			lastPlace = place;
+		}
+		if (!hasDigits) {
+			throw start == end ? new NumberFormatException("Empty amount") : invalid(chars, start, end);
+		}
+		for (int i = lastPlace; i < 2; i++) {
+			pence = Math.multiplyExact(pence, 10);
+		}
+		if (roundUp) {
+			pence = Math.addExact(pence, 1);
+		}
+		return negative ? -pence : pence;
+	}
+
+	private static int parseExponent(CharSequence chars, int position, int end, int start) {
+		boolean negative = position < end && chars.charAt(position) == '-';
+		if (position < end && (negative || chars.charAt(position) == '+')) {
+			position++;
+		}
+		if (position == end) {
+			throw invalid(chars, start, end);
+		}
+		int exponent = 0;
+		for (; position < end; position++) {
+			char c = chars.charAt(position);
+			// no amount needs more than a few digits of exponent, and this keeps the places below from overflowing
+			if (c < '0' || c > '9' || exponent > 1000) {
+				throw invalid(chars, start, end);
+			}
+			exponent = exponent * 10 + (c - '0');
+		}
+		return negative ? -exponent : exponent;
+	}
+
+	private static NumberFormatException invalid(CharSequence chars, int start, int end) {
+		return new NumberFormatException("Invalid amount \"" + chars.subSequence(start, end) + "\"");
+	}
+
+	/** Formats pence as pounds with exactly two decimal places, e.g. {@code 1205} as {@code 12.05} */
+	public static String format(long pence) {
+		return appendTo(new StringBuilder(24), pence).toString();
+	}
+
+	public static StringBuilder appendTo(StringBuilder sb, long pence) {
+		if (pence < 0) {
+			sb.append('-');
+		}
+		// pounds and pence are made positive separately, as Long.MIN_VALUE has no positive counterpart
+		long remainder = Math.abs(pence % 100);
+		sb.append(Math.abs(pence / 100)).append('.');
+		if (remainder < 10) {
+			sb.append('0');
+		}
+		return sb.append(remainder);
+	}
+}
@@ -9,69 +9,244 @@ import newbank.server.exception.username.UsernameCharacterException;
 import newbank.server.exception.username.UsernameException;
 import newbank.server.exception.username.UsernameExistsException;
 import newbank.server.exception.username.UsernameLengthException;
+import newbank.server.microloan.MicroLoanRequest;
+import newbank.server.microloan.Microloan;
 import newbank.server.microloan.MicroloanManagement;
+import newbank.server.microloan.MicroloanOffer;
+import newbank.server.validation.Validators;
+import newbank.server.validation.Violation;
 
-import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class NewBank {
-	private static final NewBank bank = new NewBank();
-	public Customer loggedInCustomer;
-	private HashMap<Integer, Customer> customers;
-	private HashMap<Integer, Account> accounts;
+	private ConcurrentHashMap<Integer, Customer> customers;
+	private ConcurrentHashMap<Integer, Account> accounts;
+	private final ConcurrentHashMap<String, Integer> customerIdsByUsername = new ConcurrentHashMap<>();
 	private DatabaseHandler databaseHandler;
 	private MicroloanManagement microloanManagement;
+	private final AccountLocks accountLocks = new AccountLocks();
+	private Journal journal;
+	private AccountStore accountStore;
+	private IdSequences idSequences;
+	private final PersistenceQueue persistence = new PersistenceQueue();
+	private final PasswordVerifier passwordVerifier = new PasswordVerifier(new Pbkdf2CredentialHasher());
+	private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "newbank-maintenance");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile long lastSnapshotMillis;
+	/** Ids of customers and accounts changed since the last snapshot, each queued once however often it changes */
+	private final Set<Integer> dirtyCustomers = ConcurrentHashMap.newKeySet();
+	private final Set<Integer> dirtyAccounts = ConcurrentHashMap.newKeySet();
+
+	/** Keys under which rewrites of the same file are coalesced */
+	private enum PersistedFile {
+		MICROLOAN_OFFERS,
+		MICROLOAN_REQUESTS
+	}
+
+	private static final long SNAPSHOT_INTERVAL_MILLIS = 5 * 60 * 1000;
+	private static final long SNAPSHOT_JOURNAL_BYTES = 64 * 1024 * 1024;
+	private static final int SNAPSHOT_DIRTY_RECORDS = 100_000;
+
+	/** The bank is only loaded when first asked for, so tools can build their own instance over other data */
+	private static class Holder {
+		static final NewBank bank = new NewBank();
+	}
 
 	public NewBank() {
+		this(new DatabaseHandler());
+	}
 
-		databaseHandler = new DatabaseHandler();
-		customers = databaseHandler.getCustomers();
-		accounts = databaseHandler.getAccounts();
-		microloanManagement = new MicroloanManagement();
+	public NewBank(DatabaseHandler databaseHandler) {
+		long startNanos = System.nanoTime();
+		this.databaseHandler = databaseHandler;
+		setCustomers(databaseHandler.getCustomers());
+		setAccounts(databaseHandler.getAccounts());
 		linkCustomersToAccounts();
-		microloanManagement.setMicroLoanRequestList(databaseHandler.microLoanRequestList());
+		openAccountStore();
+		openJournal();
+		// microloans resolve their customers against the map loaded above, so they are read once journal replay is done
+		microloanManagement = new MicroloanManagement();
+		microloanManagement.setMicroLoanRequestList(databaseHandler.microLoanRequestList(customers));
 		if(microloanManagement.getMicroLoanRequestList() == null || microloanManagement.getMicroLoanRequestList().isEmpty()) {
 			microloanManagement.setMicroLoanRequestList(new ArrayList<>());
 		}
-		microloanManagement.setMicroloanList(databaseHandler.microloans());
+		microloanManagement.setMicroloanList(databaseHandler.microloans(customers));
 		if(microloanManagement.getMicroloanList() == null || microloanManagement.getMicroloanList().isEmpty()) {
 			microloanManagement.setMicroloanList(new ArrayList<>());
 		}
-		loggedInCustomer = null;
+		microloanManagement.setMicroloanOffers(databaseHandler.microloanOffers());
+		idSequences = new IdSequences(databaseHandler, Map.of(
+				IdSequences.Entity.CUSTOMER, customers.keySet().stream().max(Integer::compare).orElse(0),
+				IdSequences.Entity.ACCOUNT, accounts.keySet().stream().max(Integer::compare).orElse(0),
+				IdSequences.Entity.MICROLOAN_REQUEST, microloanManagement.getMicroLoanRequestList().stream()
+						.mapToInt(MicroLoanRequest::getId).max().orElse(0)));
+		System.out.println(String.format("NewBank loaded %d customers and %d accounts in %d ms",
+				customers.size(), accounts.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+	}
+
+	/**
+	 * Balances in the account store are newer than the last snapshot, so they are applied before the journal. The store
+	 * only ever holds balances whose journal records are durable, so replaying the journal on top of it is exact.
+	 */
+	private void openAccountStore() {
+		try {
+			accountStore = new AccountStore(databaseHandler.getAccountStoreFile());
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		accountStore.overlay(accounts);
+	}
+
+	/**
+	 * Replays the journal on top of the snapshot just loaded, then compacts it into a fresh snapshot. The fsync policy
+	 * is taken from the newbank.journal.fsync system property (always, interval or never).
+	 */
+	private void openJournal() {
+		try {
+			Journal.FsyncPolicy fsyncPolicy = Journal.FsyncPolicy.valueOf(System.getProperty("newbank.journal.fsync", "always").toUpperCase());
+			journal = new Journal(databaseHandler.getJournalFile(), fsyncPolicy, new DurableChanges());
+			journal.replay(new JournalReplay());
+			persistData();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		maintenance.scheduleWithFixedDelay(this::maintainJournal, 1, 1, TimeUnit.SECONDS);
+	}
+
+	private void maintainJournal() {
+		try {
+			if (journal.getFsyncPolicy() == Journal.FsyncPolicy.INTERVAL) {
+				journal.force();
+			}
+			long journalSize = journal.size();
+			boolean snapshotDue = System.currentTimeMillis() - lastSnapshotMillis > SNAPSHOT_INTERVAL_MILLIS;
+			int dirtyRecords = dirtyCustomers.size() + dirtyAccounts.size();
+			if (journalSize > SNAPSHOT_JOURNAL_BYTES || dirtyRecords >= SNAPSHOT_DIRTY_RECORDS || (journalSize > 0 && snapshotDue)) {
+				persistData();
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/** Copies balances into the account store once the journal records carrying them are durable */
+	private class DurableChanges implements Journal.Visitor {
+		@Override
+		public void customerCreated(int id, String username, String password) {
+		}
+
+		@Override
+		public void passwordChanged(int id, String password) {
+		}
+
+		@Override
+		public void accountCreated(int id, int customerId, String name, long balance) {
+			accountStore.put(id, balance);
+		}
+
+		@Override
+		public void accountDeleted(int id) {
+			accountStore.remove(id);
+		}
+
+		@Override
+		public void balanceChanged(int accountId, long balance) {
+			accountStore.put(accountId, balance);
+		}
 	}
 
+	/** Applies journal records to the in-memory bank at startup, and to the account store as they are already durable */
+	private class JournalReplay extends DurableChanges {
+		@Override
+		public void customerCreated(int id, String username, String password) {
+			Customer customer = new Customer(id);
+			customer.setUsername(username);
+			customer.setPassword(password);
+			customers.put(id, customer);
+			customerIdsByUsername.put(username, id);
+			markDirty(customer);
+		}
+
+		@Override
+		public void passwordChanged(int id, String password) {
+			Customer customer = customers.get(id);
+			if (customer != null) {
+				customer.setPassword(password);
+				markDirty(customer);
+			}
+		}
+
+		@Override
+		public void accountCreated(int id, int customerId, String name, long balance) {
+			Account account = new Account(id);
+			account.setCustomerId(customerId);
+			account.setName(name);
+			account.setBalance(balance);
+			accountDeleted(id);
+			accounts.put(id, account);
+			customers.get(customerId).addAccount(account);
+			markDirty(account);
+			super.accountCreated(id, customerId, name, balance);
+		}
+
+		@Override
+		public void accountDeleted(int id) {
+			Account account = accounts.remove(id);
+			if (account != null) {
+				customers.get(account.getCustomerId()).removeAccount(id);
+				dirtyAccounts.add(id);
+			}
+			super.accountDeleted(id);
+		}
+
+		@Override
+		public void balanceChanged(int accountId, long balance) {
+			Account account = accounts.get(accountId);
+			if (account != null) {
+				account.setBalance(balance);
+				super.balanceChanged(accountId, balance);
+			}
+		}
+	}
+
+	/** Attaches every account to its owner in a single pass over the accounts */
 	public void linkCustomersToAccounts() {
-		for (Customer customer : customers.values()) {
-			for (Account account : accounts.values()) {
-				if (customer.getId() == account.getCustomerId()) {
-					customer.addAccount(account);
-				}
+		for (Account account : accounts.values()) {
+			Customer customer = customers.get(account.getCustomerId());
+			if (customer != null) {
+				customer.addAccount(account);
 			}
 		}
 	}
 	
 	public static NewBank getBank() {
-		return bank;
+		return Holder.bank;
 	}
 
-	public void setLoggedInCustomer(int customerId) {
-		loggedInCustomer = customers.get(customerId);
+	public void login(Session session, int customerId) {
+		session.setCustomer(customers.get(customerId));
 	}
 
 	public Integer usernameExists(String username) {
-		for (Customer customer : customers.values()) {
-			if (customer.getUsername().equals(username)) {
-				return customer.getId();
-			}
-		}
-		return null;
+		return customerIdsByUsername.get(username);
 	}
 
 	public Integer accountNameExists(ArrayList<Account> accounts, String accountName) {
@@ -83,22 +258,36 @@ public class NewBank {
 		return null;
 	}
 
-	public synchronized boolean checkPassword(int customerId, String password) throws NoSuchAlgorithmException {
+	/**
+	 * Verifies a password on the password worker pool. Passwords still stored in an older format are rehashed once
+	 * verified, so existing customers move to the current hash as they log in.
+	 */
+	public boolean checkPassword(int customerId, String password) {
+		long startNanos = System.nanoTime();
 		Customer customer = customers.get(customerId);
-		return customer.getPassword().equals(hashPassword(password));
+		String stored = customer.getPassword();
+		if (!passwordVerifier.verify(password, stored)) {
+			Metrics.record(Metrics.Operation.LOGIN, startNanos, false);
+			return false;
+		}
+		if (passwordVerifier.needsRehash(stored)) {
+			String rehashed = passwordVerifier.hash(password);
+			customer.setPassword(rehashed);
+			markDirty(customer);
+			journal.sync(journal.passwordChanged(customerId, rehashed));
+		}
+		Metrics.record(Metrics.Operation.LOGIN, startNanos, true);
+		return true;
 	}
 
 	/** Boolean method to check if new customer username is valid */
 	public boolean isUsernameValid(String username) throws UsernameException {
-		// Username must be between 5 and 25 characters in length
-		if (username.length() < 5 || username.length() > 25) {
-			throw new UsernameLengthException();
+		Violation violation = Validators.USERNAME.check(username);
+		if (violation == Violation.INVALID_CHARACTER) {
+			throw new UsernameCharacterException();
 		}
-		for (char c : username.toCharArray()) {
-			// Username must consist only of alphabetic characters or numeric digits
-			if (!(Character.isAlphabetic(c) || Character.isDigit(c))) {
-				throw new UsernameCharacterException();
-			}
+		if (violation != null) {
+			throw new UsernameLengthException();
 		}
 		// Username must not already exist
 		if (usernameExists(username) != null) {
@@ -108,138 +297,415 @@ public class NewBank {
 	}
 	
 	public boolean isPasswordValid(String password) {
-		// https://www.geeksforgeeks.org/how-to-validate-a-password-using-regular-expressions-in-java
-		// Regex to recognise a password that represents a digit, uppercase letter, special character appearing at least
-		// once, and at least 8 characters and at most 20.
-		return Pattern
-				.compile("^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=.*[@#$%^&+=!?])(?=\\S+$).{8,25}$")
-				.matcher(password)
-				.matches();
-	}
-
-	public boolean isAccountNameValid(String accountName) throws AccountNameException {
-		// Username must be between 3 and 15 characters in length
-		if (accountName.length() < 3 || accountName.length() > 15) {
-			throw new AccountNameLengthException();
+		return checkPasswordPolicy(password) == null;
+	}
+
+	/** Returns the password rule broken, or null if the password is acceptable */
+	public Violation checkPasswordPolicy(String password) {
+		return Validators.PASSWORD.check(password);
+	}
+
+	public boolean isAccountNameValid(Session session, String accountName) throws AccountNameException {
+		Violation violation = Validators.ACCOUNT_NAME.check(accountName);
+		if (violation == Violation.INVALID_CHARACTER) {
+			throw new AccountNameCharacterException();
 		}
-		for (char c : accountName.toCharArray()) {
-			// Username must consist only of alphabetic characters or numeric digits
-			if (!(Character.isAlphabetic(c) || Character.isDigit(c))) {
-				throw new AccountNameCharacterException();
-			}
+		if (violation != null) {
+			throw new AccountNameLengthException();
 		}
 		// Account name must not already exist
-		ArrayList<Account> accounts = loggedInCustomer.getAccounts();
-		if (accountNameExists(accounts, accountName) != null) {
+		if (session.getCustomer().getAccountByName(accountName) != null) {
 			throw new AccountNameExistsException();
 		}
 		return true;
 	}
 
-    public boolean customerAccountExists(String accountName) {
-		for (Account account : loggedInCustomer.getAccounts()) {
-			if (account.getName().equals(accountName)) {
-				return true;
-			}
-		}
-		return false;
+	public boolean customerAccountExists(Session session, String accountName) {
+		return session.getCustomer().getAccountByName(accountName) != null;
 	}
 
-	public void addCustomer(String username, String password, double initialDeposit) throws NoSuchAlgorithmException {
-		// Create Customer
-		int customerId = customers.size() > 0 ? Collections.max(customers.keySet()) + 1 : 1;
+	public void addCustomer(Session session, String username, String password, long initialDeposit) throws UsernameExistsException {
+		requirePositive(initialDeposit);
+		long startNanos = System.nanoTime();
+		if (customerIdsByUsername.containsKey(username)) {
+			Metrics.record(Metrics.Operation.REGISTER, startNanos, false);
+			throw new UsernameExistsException();
+		}
+		// Create Customer, with the slow hash done before anything is visible to other sessions
+		int customerId = idSequences.nextId(IdSequences.Entity.CUSTOMER);
 		Customer customer = new Customer(customerId);
 		customer.setUsername(username);
-		customer.setPassword(hashPassword(password));
-		customers.put(customerId, customer);
+		customer.setPassword(passwordVerifier.hash(password));
 
 		// Create main account for Customer
-		int accountId = accounts.size() > 0 ? Collections.max(accounts.keySet()) + 1 : 1;
+		int accountId = idSequences.nextId(IdSequences.Entity.ACCOUNT);
 		Account account = new Account(accountId);
 		account.setCustomerId(customerId);
 		account.setName("main");
 		account.setBalance(initialDeposit);
+		customer.addAccount(account);
 		accounts.put(accountId, account);
+		customers.put(customerId, customer);
 
-		customer.addAccount(account);
-		loggedInCustomer = customer;
+		// Claim the username last, so it only ever leads to a complete customer; of two concurrent registrations of the
+		// same name only one can claim it, and the other takes its customer back out
+		if (customerIdsByUsername.putIfAbsent(username, customerId) != null) {
+			customers.remove(customerId);
+			accounts.remove(accountId);
+			Metrics.record(Metrics.Operation.REGISTER, startNanos, false);
+			throw new UsernameExistsException();
+		}
+		markDirty(customer);
+		markDirty(account);
+		journal.customerCreated(customerId, username, customer.getPassword());
+		journal.sync(journal.accountCreated(accountId, customerId, "main", initialDeposit));
+		session.setCustomer(customer);
+		Metrics.record(Metrics.Operation.REGISTER, startNanos, true);
 	}
 
-	public void addAccount(String name, double deposit) {
-		int accountId = accounts.size() > 0 ? Collections.max(accounts.keySet()) + 1 : 1;
+	public void addAccount(Session session, String name, long deposit) {
+		requirePositive(deposit);
+		Customer customer = session.getCustomer();
+		int accountId = idSequences.nextId(IdSequences.Entity.ACCOUNT);
 		Account account = new Account(accountId);
-		account.setCustomerId(loggedInCustomer.getId());
+		account.setCustomerId(customer.getId());
 		account.setName(name);
 		account.setBalance(deposit);
 		accounts.put(accountId, account);
-		loggedInCustomer.addAccount(account);
+		customer.addAccount(account);
+		markDirty(account);
+		journal.sync(journal.accountCreated(accountId, customer.getId(), name, deposit));
 	}
 
-	public void deleteAccount(String name) {
-		Account account = loggedInCustomer.getAccountByName(name);
+	public void deleteAccount(Session session, String name) {
+		Customer customer = session.getCustomer();
+		Account account = customer.getAccountByName(name);
 		accounts.remove(account.getId());
-		loggedInCustomer.getAccounts().removeIf(x -> x.getId() == account.getId());
+		customer.removeAccount(account.getId());
+		dirtyAccounts.add(account.getId());
+		journal.sync(journal.accountDeleted(account.getId()));
 	}
 
-	public void internalTransfer(String fromAccountName, String toAccountName, double amount) throws InsufficientFundsException {
-		Account fromAccount = loggedInCustomer.getAccountByName(fromAccountName);
-		Account toAccount = loggedInCustomer.getAccountByName(toAccountName);
-		if (fromAccount.getBalance() < amount) {
-			throw new InsufficientFundsException();
-		}
-		fromAccount.setBalance(fromAccount.getBalance() - amount);
-		toAccount.setBalance(toAccount.getBalance() + amount);
+	public void internalTransfer(Session session, String fromAccountName, String toAccountName, long amount) throws InsufficientFundsException {
+		Account fromAccount = session.getCustomer().getAccountByName(fromAccountName);
+		Account toAccount = session.getCustomer().getAccountByName(toAccountName);
+		transfer(fromAccount, toAccount, amount);
 	}
 
-	public void externalTransfer(String toCustomerName, String fromAccountName, double amount) throws InsufficientFundsException {
-		Account fromAccount = loggedInCustomer.getAccountByName(fromAccountName);
-		Customer toCustomer = customers.values().stream().filter(x -> x.getUsername().equals(toCustomerName)).toList().get(0);
+	public void externalTransfer(Session session, String toCustomerName, String fromAccountName, long amount) throws InsufficientFundsException {
+		Account fromAccount = session.getCustomer().getAccountByName(fromAccountName);
+		Customer toCustomer = customers.get(customerIdsByUsername.get(toCustomerName));
 		Account toAccount = toCustomer.getAccountByName("main");
-		if (fromAccount.getBalance() < amount) {
-			throw new InsufficientFundsException();
+		transfer(fromAccount, toAccount, amount);
+	}
+
+	/**
+	 * Moves {@code amount} pence between two accounts atomically, holding the locks of both accounts for the check and
+	 * the update. Every transfer, from either protocol or a microloan, is counted as internal or external by whether
+	 * both accounts belong to the same customer.
+	 *
+	 * @throws IllegalArgumentException if the amount is not above zero, which would move money the other way
+	 */
+	public void transfer(Account fromAccount, Account toAccount, long amount) throws InsufficientFundsException {
+		requirePositive(amount);
+		long startNanos = System.nanoTime();
+		Metrics.Operation operation = transferOperation(fromAccount, toAccount);
+		long seq;
+		accountLocks.lock(fromAccount.getId(), toAccount.getId());
+		try {
+			if (fromAccount.getBalance() < amount) {
+				Metrics.record(operation, startNanos, false);
+				throw new InsufficientFundsException();
+			}
+			setBalance(fromAccount, Math.subtractExact(fromAccount.getBalance(), amount));
+			seq = setBalance(toAccount, Math.addExact(toAccount.getBalance(), amount));
+		} finally {
+			accountLocks.unlock(fromAccount.getId(), toAccount.getId());
+		}
+		journal.sync(seq);
+		Metrics.record(operation, startNanos, true);
+	}
+
+	private static Metrics.Operation transferOperation(Account fromAccount, Account toAccount) {
+		return fromAccount.getCustomerId() == toAccount.getCustomerId()
+				? Metrics.Operation.INTERNAL_TRANSFER : Metrics.Operation.EXTERNAL_TRANSFER;
+	}
+
+	/**
+	 * Applies a batch of transfers as one unit: the locks of every account involved are held while all items are checked
+	 * and applied, so either every transfer happens or none does, and the batch is synced to the journal once.
+	 * Items are checked in order, each against the balances left by the items before it. Each item is recorded in
+	 * {@link Metrics} as a transfer taking as long as the whole batch.
+	 *
+	 * @return for each item the balance left in its donor account, or -1 for each item that could not be funded, in
+	 * which case nothing was applied
+	 * @throws IllegalArgumentException if any amount is not above zero
+	 */
+	public long[] transferBatch(Account[] fromAccounts, Account[] toAccounts, long[] amounts) {
+		for (long amount : amounts) {
+			requirePositive(amount);
+		}
+		long startNanos = System.nanoTime();
+		int[] accountIds = new int[fromAccounts.length * 2];
+		for (int i = 0; i < fromAccounts.length; i++) {
+			accountIds[2 * i] = fromAccounts[i].getId();
+			accountIds[2 * i + 1] = toAccounts[i].getId();
+		}
+		long[] results = new long[amounts.length];
+		long seq = 0;
+		int[] locked = accountLocks.lockAll(accountIds);
+		try {
+			IdentityHashMap<Account, Long> balances = new IdentityHashMap<>();
+			boolean funded = true;
+			for (int i = 0; i < amounts.length; i++) {
+				long fromBalance = balances.getOrDefault(fromAccounts[i], fromAccounts[i].getBalance());
+				if (fromBalance < amounts[i]) {
+					results[i] = -1;
+					funded = false;
+					continue;
+				}
+				balances.put(fromAccounts[i], fromBalance - amounts[i]);
+				// read after the debit, so an item paying an account into itself leaves it as it was
+				long toBalance = balances.getOrDefault(toAccounts[i], toAccounts[i].getBalance());
+				balances.put(toAccounts[i], Math.addExact(toBalance, amounts[i]));
+				results[i] = balances.get(fromAccounts[i]);
+			}
+			if (!funded) {
+				recordBatch(fromAccounts, toAccounts, startNanos, false);
+				return results;
+			}
+			for (Map.Entry<Account, Long> balance : balances.entrySet()) {
+				seq = setBalance(balance.getKey(), balance.getValue());
+			}
+		} finally {
+			accountLocks.unlockAll(locked);
+		}
+		journal.sync(seq);
+		recordBatch(fromAccounts, toAccounts, startNanos, true);
+		return results;
+	}
+
+	private static void recordBatch(Account[] fromAccounts, Account[] toAccounts, long startNanos, boolean applied) {
+		for (int i = 0; i < fromAccounts.length; i++) {
+			Metrics.record(transferOperation(fromAccounts[i], toAccounts[i]), startNanos, applied);
+		}
+	}
+
+	/** Deposits and transfers are checked here, whichever protocol they came from, so no caller can move money backwards */
+	private static void requirePositive(long amount) {
+		if (amount <= 0) {
+			throw new IllegalArgumentException("Amount must be above zero, was " + amount);
+		}
+	}
+
+	/**
+	 * Updates a balance in memory and appends it to the journal; its account store slot follows once the record is
+	 * durable. The account is not marked dirty, as the store rather than account.csv holds balances. Must be called
+	 * holding the account's lock, so records for the same account reach the journal in balance order.
+	 *
+	 * @return the journal sequence number to sync on
+	 */
+	private long setBalance(Account account, long balance) {
+		account.setBalance(balance);
+		return journal.balanceChanged(account.getId(), balance);
+	}
+
+	/** Customers whose username leads to them, leaving out one briefly added by a registration that lost its name */
+	private Map<Integer, Customer> registeredCustomers() {
+		Map<Integer, Customer> registered = new HashMap<>(customers.size() * 4 / 3 + 1);
+		for (Customer customer : customers.values()) {
+			if (Integer.valueOf(customer.getId()).equals(customerIdsByUsername.get(customer.getUsername()))) {
+				registered.put(customer.getId(), customer);
+			}
+		}
+		return registered;
+	}
+
+	private static List<Integer> takeDirty(Set<Integer> dirty) {
+		List<Integer> ids = new ArrayList<>();
+		for (Iterator<Integer> iterator = dirty.iterator(); iterator.hasNext(); ) {
+			ids.add(iterator.next());
+			iterator.remove();
 		}
-		fromAccount.setBalance(fromAccount.getBalance() - amount);
-		toAccount.setBalance(toAccount.getBalance() + amount);
+		return ids;
 	}
 
-	private String hashPassword(String passwordInput) throws NoSuchAlgorithmException {
-		byte[] stringBytes = passwordInput.getBytes(StandardCharsets.UTF_8);
-		MessageDigest md = MessageDigest.getInstance("MD5");
-		BigInteger bigInt = new BigInteger(md.digest(stringBytes));
-		return bigInt.toString(16);
+	private void requeueDirty(List<Integer> customerIds, List<Integer> accountIds) {
+		for (int id : customerIds) {
+			Customer customer = customers.get(id);
+			if (customer != null) {
+				customer.clearDirty();
+				markDirty(customer);
+			}
+		}
+		for (int id : accountIds) {
+			Account account = accounts.get(id);
+			if (account == null) {
+				dirtyAccounts.add(id);
+			} else {
+				account.clearDirty();
+				markDirty(account);
+			}
+		}
+	}
+
+	private void markDirty(Customer customer) {
+		if (customer.markDirty()) {
+			dirtyCustomers.add(customer.getId());
+		}
+	}
+
+	private void markDirty(Account account) {
+		if (account.markDirty()) {
+			dirtyAccounts.add(account.getId());
+		}
+	}
+
+	/**
+	 * Runs a new microloan request through the matching engine. Each fill moves the money from the lender's main
+	 * account to the borrower's; the remainder, if any, is left open on the request. The offer book is written back
+	 * whenever a fill was attempted, as it has either been drawn down or lost an offer its lender could not fund.
+	 */
+	public List<Microloan> submitMicroloanRequest(MicroLoanRequest request) {
+		AtomicBoolean offersChanged = new AtomicBoolean();
+		List<Microloan> microloans = microloanManagement.submitRequest(request, (offer, borrower, amount) -> {
+			offersChanged.set(true);
+			return settleMicroloan(offer, borrower, amount);
+		});
+		for (Microloan microloan : microloans) {
+			storeMicroloan(microloan);
+		}
+		if (offersChanged.get()) {
+			persistMicroloanOffers();
+		}
+		if (request.getAmount() > 0) {
+			persistMicroloanRequests();
+		}
+		return microloans;
+	}
+
+	private Microloan settleMicroloan(MicroloanOffer offer, MicroLoanRequest request, long amount) {
+		Customer lender = customers.get(offer.getCustomerId());
+		Customer borrower = customers.get(request.getCustomerId());
+		if (lender == null || borrower == null) {
+			return null;
+		}
+		try {
+			transfer(lender.getAccountByName("main"), borrower.getAccountByName("main"), amount);
+		} catch (InsufficientFundsException ex) {
+			return null;
+		}
+		Microloan microloan = new Microloan();
+		microloan.setAmount(amount);
+		microloan.setInterest(offer.getInterestRate());
+		microloan.setRepaid(false);
+		microloan.setLoaner(lender);
+		microloan.setTaker(borrower);
+		microloan.setDateOfExpiry(LocalDateTime.now().plusWeeks(1).toString());
+		return microloan;
+	}
+
+	/** Queues a new microloan, already in the microloan list, to be appended to its file on disk */
+	public CompletableFuture<Void> storeMicroloan(Microloan microloan) {
+		return persistence.submit(() -> databaseHandler.storeMicroloan(microloan));
+	}
+
+	/** Queues a rewrite of the offer book, taken from its state when the write runs */
+	public CompletableFuture<Void> persistMicroloanOffers() {
+		return persistence.submit(PersistedFile.MICROLOAN_OFFERS,
+				() -> databaseHandler.persistMicroloanOffers(microloanManagement.getOffersByInterestRate()));
+	}
+
+	/** Queues a rewrite of the open microloan requests, taken from their state when the write runs */
+	public CompletableFuture<Void> persistMicroloanRequests() {
+		return persistence.submit(PersistedFile.MICROLOAN_REQUESTS,
+				() -> databaseHandler.persistMicroloanRequests(microloanManagement.getMicroLoanRequestList()));
+	}
+
+	/** Completes once every write queued so far is on disk; failures of those writes are logged by the writer */
+	public CompletableFuture<Void> persisted() {
+		return persistence.barrier();
 	}
 
 	public List<String> getCustomerNames() {
 		return customers.values().stream().map(Customer::getUsername).toList();
 	}
 
+	/**
+	 * Writes a snapshot and drops the journal segments it covers. Only files holding a changed record are rewritten, and
+	 * the account store, which already has every durable balance, is only forced, so a snapshot with nothing changed
+	 * costs no writes. Balances are left to the store and overlaid on account.csv at startup, so account.csv is only
+	 * rewritten when accounts are created or deleted, not after every transfer. Transfers carry on while it is written.
+	 */
 	public void persistData() {
-		databaseHandler.persistCustomers(customers);
-		databaseHandler.persistAccounts(accounts);
-	}
-
-	public Customer getLoggedInCustomer() {
-		return loggedInCustomer;
+		long startNanos = System.nanoTime();
+		try {
+			journal.checkpoint(() -> {
+				// each id leaves the queue before its flag is cleared, so a change made meanwhile is queued again
+				List<Integer> customerIds = takeDirty(dirtyCustomers);
+				List<Integer> accountIds = takeDirty(dirtyAccounts);
+				try {
+					if (!customerIds.isEmpty()) {
+						for (int id : customerIds) {
+							Customer customer = customers.get(id);
+							if (customer != null) {
+								customer.clearDirty();
+							}
+						}
+						databaseHandler.persistCustomers(registeredCustomers());
+					}
+					if (!accountIds.isEmpty()) {
+						for (int id : accountIds) {
+							Account account = accounts.get(id);
+							if (account != null) {
+								account.clearDirty();
+							}
+						}
+						databaseHandler.persistAccounts(accounts);
+					}
+					accountStore.force();
+				} catch (IOException | RuntimeException ex) {
+					// the sealed journal segments are kept when a snapshot fails, and the records go back in the queue for the
+					// next one
+					requeueDirty(customerIds, accountIds);
+					throw ex;
+				}
+			});
+			lastSnapshotMillis = System.currentTimeMillis();
+			Metrics.record(Metrics.Operation.PERSIST, startNanos, true);
+		} catch (IOException ex) {
+			Metrics.record(Metrics.Operation.PERSIST, startNanos, false);
+			ex.printStackTrace();
+		}
 	}
 
-	public void setLoggedInCustomer(Customer loggedInCustomer) {
-		this.loggedInCustomer = loggedInCustomer;
+	/** Stops background maintenance, finishes queued writes and closes the journal and account store, after writing a final snapshot */
+	public void close() throws IOException {
+		maintenance.shutdownNow();
+		persistence.close();
+		persistData();
+		journal.close();
+		accountStore.close();
 	}
 
-	public HashMap<Integer, Customer> getCustomers() {
+	public ConcurrentHashMap<Integer, Customer> getCustomers() {
 		return customers;
 	}
 
-	public void setCustomers(HashMap<Integer, Customer> customers) {
-		this.customers = customers;
+	public void setCustomers(Map<Integer, Customer> customers) {
+		this.customers = new ConcurrentHashMap<>(customers);
+		customerIdsByUsername.clear();
+		for (Customer customer : customers.values()) {
+			customerIdsByUsername.put(customer.getUsername(), customer.getId());
+		}
 	}
 
-	public HashMap<Integer, Account> getAccounts() {
+	public ConcurrentHashMap<Integer, Account> getAccounts() {
 		return accounts;
 	}
 
-	public void setAccounts(HashMap<Integer, Account> accounts) {
-		this.accounts = accounts;
+	public void setAccounts(Map<Integer, Account> accounts) {
+		this.accounts = new ConcurrentHashMap<>(accounts);
 	}
 
 	public DatabaseHandler getDatabaseHandler() {
@@ -250,6 +716,10 @@ public class NewBank {
 		this.databaseHandler = databaseHandler;
 	}
 
+	public IdSequences getIdSequences() {
+		return idSequences;
+	}
+
 	public MicroloanManagement getMicroloanManagement() {
 		return microloanManagement;
 	}
@@ -4,78 +4,108 @@ import newbank.server.exception.accountname.AccountNameException;
 import newbank.server.exception.transfer.InsufficientFundsException;
 import newbank.server.exception.username.UsernameException;
 import newbank.server.exception.exit.ExitProcessException;
-import newbank.server.exception.exit.LogoutException;
 import newbank.server.microloan.MicroLoanRequest;
 import newbank.server.microloan.Microloan;
 import newbank.server.microloan.MicroloanManagement;
 import newbank.server.microloan.MicroloanOffer;
+import newbank.server.validation.Validators;
+import newbank.server.validation.Violation;
 
 import java.io.*;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.security.NoSuchAlgorithmException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-public class NewBankClientHandler extends Thread {
+/**
+ * The text menu of one connection. Every question sets the {@link Prompt} its answer goes to, so between lines the
+ * dialogue is just this object and holds no thread. {@link #run()} reads lines from the socket on a thread of its own;
+ * the {@link SelectorFrontEnd} reads them itself and passes each one to {@link #handleLine(String)}.
+ */
+public class NewBankClientHandler implements Runnable {
     private NewBank bank;
+    private Socket socket;
     private BufferedReader in;
     private PrintWriter out;
+    private final Session session = new Session();
+    private long menuDelayMillis;
+    private ScheduledFuture<?> delayedMenu;
+    /** Handles the next line from the client */
+    private Prompt prompt;
+
+    /** Shared by all connections to show the menu after a pause, so a pause never holds a connection thread */
+    private static final ScheduledExecutorService delayedPrompts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "newbank-delayed-prompts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The answer to a question, which throws ExitProcessException to leave the menu the question was asked in */
+    private interface Prompt {
+        void answer(String line) throws ExitProcessException;
+    }
 
-    private final static String pathMicroloan = "./newbank/microloan.csv";
-    private final static String pathMicroloanOffer ="./newbank/microloan_offer.csv";
-    private final static String pathMicroloanAccount ="./newbank/account.csv";
-    private final static String pathMicroloanReq ="./newbank/microloan_request.csv";
+    private interface AmountPrompt {
+        void answer(long amount) throws ExitProcessException;
+    }
 
+    /** Serves a connection from a thread of its own, see {@link #run()} */
     public NewBankClientHandler(Socket s) throws IOException {
 
         bank = NewBank.getBank();
+        socket = s;
         in = new BufferedReader(new InputStreamReader(s.getInputStream()));
         out = new PrintWriter(s.getOutputStream(), true);
     }
 
-    public String requestUserInput() throws ExitProcessException, IOException {
-        String userInput = in.readLine();
-        if (userInput.equals("x")) {
-            throw new ExitProcessException();
-        } else {
-            return userInput;
-        }
+    /** Serves a connection whose lines are read by the caller and passed to {@link #handleLine(String)} */
+    NewBankClientHandler(PrintWriter out) {
+        bank = NewBank.getBank();
+        this.out = out;
     }
 
-    public void run() {
-        mainMenu();
+    /**
+     * Reads the next line from the client, closing the connection if the client has gone away or stayed idle for
+     * longer than the socket timeout set by the server.
+     */
+    private String readLine() throws IOException {
+        try {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("Client disconnected");
+            }
+            return line;
+        } catch (SocketTimeoutException ex) {
+            out.println("Session closed due to inactivity");
+            socket.close();
+            throw ex;
+        }
     }
 
-    public void mainMenu() {
+    public void run() {
         // Keep getting requests from the client and processing them
         try {
+            start();
             while (true) {
-                try {
-                    // Ask for username
-                    out.println("Welcome to NewBank, please choose from the following options to get started: ");
-                    out.println("[1] - Sign in");
-                    out.println("[2] - Create new NewBank user");
-                    String userInput = in.readLine();
-                    switch (userInput) {
-                        case "1" -> login();
-                        case "2" -> registerCustomer();
-                    }
-                } catch (ExitProcessException ignored) {
-
-                }
+                handleLine(readLine());
             }
+        } catch (EOFException | SocketException | SocketTimeoutException ignored) {
         } catch (IOException ex) {
             ex.printStackTrace();
         } finally {
+            disconnected();
             try {
                 in.close();
                 out.close();
+                socket.close();
             } catch (IOException ex) {
                 ex.printStackTrace();
                 Thread.currentThread().interrupt();
@@ -83,280 +113,294 @@ public class NewBankClientHandler extends Thread {
         }
     }
 
+    /** Greets a new connection with the main menu */
+    void start() {
+        mainMenu();
+    }
+
+    /** Answers the question last asked with a line from the client, which goes on to ask the next one */
+    void handleLine(String line) {
+        try {
+            prompt.answer(line);
+        } catch (ExitProcessException ex) {
+            if (session.isLoggedIn()) {
+                loggedInUserMenu();
+            } else {
+                mainMenu();
+            }
+        }
+    }
+
+    /** Drops anything still scheduled for a connection that has closed */
+    void disconnected() {
+        cancelDelayedMenu();
+    }
+
+    /** Prints a question and makes the next line its answer */
+    private void ask(String question, Prompt answer) {
+        out.println(question);
+        prompt = answer;
+    }
+
+    /** Like {@link #ask}, for a question that can be answered with "x" to leave the current menu */
+    private void askOrExit(String question, Prompt answer) {
+        ask(question, line -> {
+            if (line.equals("x")) {
+                throw new ExitProcessException();
+            }
+            answer.answer(line);
+        });
+    }
+
+    /** Asks for an amount until one above zero is given */
+    private void askAmount(String question, AmountPrompt answer) {
+        askOrExit(question, input -> {
+            long amount;
+            try {
+                amount = Money.parsePositive(input);
+            } catch (NumberFormatException ex) {
+                out.println("Please enter a valid amount above zero");
+                askAmount(question, answer);
+                return;
+            }
+            answer.answer(amount);
+        });
+    }
+
+    /** Asks for the name of one of the given accounts until an existing one is given */
+    private void askAccountName(String question, List<String> accountNames, Prompt answer) {
+        askOrExit(question, accountName -> {
+            if (!accountNames.contains(accountName)) {
+                out.println(String.format("No account with the name \"%s\" exists", accountName));
+                askAccountName(question, accountNames, answer);
+                return;
+            }
+            answer.answer(accountName);
+        });
+    }
+
+    private List<String> printAccountNames() {
+        ArrayList<Account> accounts = session.getCustomer().getAccounts();
+        List<String> accountNames = accounts.stream().map(Account::getName).toList();
+        String accountNameString = accounts.stream().map(Account::getName).collect(Collectors.joining(", "));
+        out.println(String.format("The names of your accounts are as follows: %s", accountNameString));
+        return accountNames;
+    }
+
+    public void mainMenu() {
+        out.println("Welcome to NewBank, please choose from the following options to get started: ");
+        out.println("[1] - Sign in");
+        ask("[2] - Create new NewBank user", userInput -> {
+            switch (userInput) {
+                case "1" -> login();
+                case "2" -> registerCustomer();
+                default -> mainMenu();
+            }
+        });
+    }
+
     /**
      * Method that proceeds with identifying existing accounts
      */
-    private void login() throws ExitProcessException {
-        try {
-            Integer customerId;
-            while (true) {
-                out.println("Please enter your username. Press \"x\" to exit");
-                String username = requestUserInput();
-                customerId = bank.usernameExists(username);
-                if (customerId == null) {
-                    out.println(String.format("No customer account with the username \"%s\" exists", username));
-                    continue;
-                }
-                break;
+    private void login() {
+        askOrExit("Please enter your username. Press \"x\" to exit", username -> {
+            Integer customerId = bank.usernameExists(username);
+            if (customerId == null) {
+                out.println(String.format("No customer account with the username \"%s\" exists", username));
+                login();
+                return;
             }
-            while (true) {
-                out.println("Please enter your password. Press \"x\" to exit");
-                String password = requestUserInput();
-                boolean passwordCorrect = bank.checkPassword(customerId, password);
-                if (!passwordCorrect) {
-                    out.println("Password incorrect");
-                    continue;
-                }
-                break;
+            askPassword(customerId);
+        });
+    }
+
+    private void askPassword(int customerId) {
+        askOrExit("Please enter your password. Press \"x\" to exit", password -> {
+            boolean passwordCorrect = bank.checkPassword(customerId, password);
+            if (!passwordCorrect) {
+                out.println("Password incorrect");
+                askPassword(customerId);
+                return;
             }
-            bank.setLoggedInCustomer(customerId);
-            loggedInUserLoop();
-        } catch (IOException | NoSuchAlgorithmException ex) {
-            ex.printStackTrace();
-        } catch (LogoutException ignored) {
-        }
+            bank.login(session, customerId);
+            loggedInUserMenu();
+        });
     }
 
     /**
-     * Method that registers new Customer, and once account registered it will loop to existingAccount Method to prevent termination.
+     * Method that registers new Customer, and once account registered it will go back to the main menu to sign in.
      */
-    private void registerCustomer() throws ExitProcessException {
-        try {
-            // Get username
+    private void registerCustomer() {
+        askOrExit("Please enter a new username. Press \"x\" to exit", username -> {
             boolean usernameValid = false;
-            String username = null;
-            while (!usernameValid) {
-                out.println("Please enter a new username. Press \"x\" to exit");
-                username = requestUserInput();
-                try {
-                    usernameValid = bank.isUsernameValid(username);
-                } catch (UsernameException ex) {
-                    out.println(ex.getMessage());
-                }
+            try {
+                usernameValid = bank.isUsernameValid(username);
+            } catch (UsernameException ex) {
+                out.println(ex.getMessage());
             }
-            // Get password
-            boolean passwordValid = false;
-            String password = null;
-            while (!passwordValid) {
-                out.println("Please enter a password. Press \"x\" to exit");
-                out.println("GUIDANCE: password must be between 8-25 characters long and must include at least one uppercase letter, one lowercase letter, one number and one special character");
-                password = requestUserInput();
-                passwordValid = bank.isPasswordValid(password);
-            }
-            // Get initial deposit
-            double initialDeposit;
-            while (true) {
-                out.println("How much would you like to deposit in your main account? Press \"x\" to exit");
-                String depositInput = requestUserInput();
-                try {
-                    initialDeposit = Double.parseDouble(depositInput);
-                    break;
-                } catch (NumberFormatException ex) {
-                    out.println("Please enter a valid number");
-                }
+            if (usernameValid) {
+                askNewPassword(username);
+            } else {
+                registerCustomer();
             }
-            bank.addCustomer(username, password, initialDeposit);
-            out.println(String.format("Customer account %s created, with an initial deposit of £%.2f", username, initialDeposit));
-        } catch (IOException | NoSuchAlgorithmException ex) {
-            ex.printStackTrace();
-        }
+        });
     }
 
-    private void createBankAccount() throws ExitProcessException {
-        try {
-            // Get account name
-            boolean accountNameValid = false;
-            String accountName = null;
-            while (!accountNameValid) {
-                out.println("What would you like to call the account? Press \"x\" to exit");
-                accountName = requestUserInput();
+    private void askNewPassword(String username) {
+        out.println("Please enter a password. Press \"x\" to exit");
+        askOrExit("GUIDANCE: password must be between 8-25 characters long and must include at least one uppercase letter, one lowercase letter, one number and one special character", password -> {
+            Violation violation = bank.checkPasswordPolicy(password);
+            if (violation != null) {
+                out.println(Validators.describePasswordViolation(violation));
+                askNewPassword(username);
+                return;
+            }
+            askAmount("How much would you like to deposit in your main account? Press \"x\" to exit", initialDeposit -> {
                 try {
-                    accountNameValid = bank.isAccountNameValid(accountName);
-                } catch (AccountNameException ex) {
+                    bank.addCustomer(session, username, password, initialDeposit);
+                    out.println(String.format("Customer account %s created, with an initial deposit of £%s", username, Money.format(initialDeposit)));
+                } catch (UsernameException ex) {
                     out.println(ex.getMessage());
                 }
+                mainMenu();
+            });
+        });
+    }
+
+    private void createBankAccount() {
+        askOrExit("What would you like to call the account? Press \"x\" to exit", accountName -> {
+            boolean accountNameValid = false;
+            try {
+                accountNameValid = bank.isAccountNameValid(session, accountName);
+            } catch (AccountNameException ex) {
+                out.println(ex.getMessage());
             }
-            // Get deposit
-            double deposit;
-            while (true) {
-                out.println(String.format("How much would you like to deposit in the account \"%s\"? Press \"x\" to exit", accountName));
-                String depositInput = requestUserInput();
-                try {
-                    deposit = Double.parseDouble(depositInput);
-                    break;
-                } catch (NumberFormatException ex) {
-                    out.println("Please enter a valid number");
-                }
+            if (!accountNameValid) {
+                createBankAccount();
+                return;
             }
-            bank.addAccount(accountName, deposit);
-            out.println(String.format("Account \"%s\" successfully created!", accountName));
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+            askAmount(String.format("How much would you like to deposit in the account \"%s\"? Press \"x\" to exit", accountName), deposit -> {
+                bank.addAccount(session, accountName, deposit);
+                out.println(String.format("Account \"%s\" successfully created!", accountName));
+                loggedInUserMenu();
+            });
+        });
     }
 
-    public void deleteBankAccount() throws ExitProcessException {
-        try {
-            // Get account name
-            String accountName;
-            ArrayList<Account> accounts = bank.loggedInCustomer.getAccounts();
-            List<String> accountNames = accounts.stream().map(Account::getName).toList();
-            String accountNameString = accounts.stream().map(Account::getName).collect(Collectors.joining(", "));
-            out.println(String.format("The names of your accounts are as follows: %s", accountNameString));
-            while (true) {
-                out.println("Enter the name of the account you would like to delete. Press \"x\" to exit");
-                accountName = requestUserInput();
-                boolean accountNameExists = accountNames.contains(accountName);
-                if (accountName.equals("main")) {
-                    out.println("Cannot delete main account");
-                } else if (!accountNameExists) {
-                    out.println(String.format("No account with the name \"%s\" exists", accountName));
-                } else {
-                    break;
-                }
+    public void deleteBankAccount() {
+        askAccountToDelete(printAccountNames());
+    }
+
+    private void askAccountToDelete(List<String> accountNames) {
+        askAccountName("Enter the name of the account you would like to delete. Press \"x\" to exit", accountNames, accountName -> {
+            if (accountName.equals("main")) {
+                out.println("Cannot delete main account");
+                askAccountToDelete(accountNames);
+                return;
             }
-            bank.deleteAccount(accountName);
+            bank.deleteAccount(session, accountName);
             out.println(String.format("Account \"%s\" successfully deleted", accountName));
-        } catch (IOException ex) {
-            ex.printStackTrace();
+            loggedInUserMenu();
+        });
+    }
+
+    public void internalTransfer() {
+        if (session.getCustomer().getAccounts().size() < 2) {
+            out.println("You need at least two accounts to make an internal transfer");
+            loggedInUserMenu();
+            return;
         }
+        List<String> accountNames = printAccountNames();
+        askAccountName("Enter the name of the account you would like to transfer money from. Press \"x\" to exit", accountNames,
+                fromAccountName -> askInternalTransferTo(accountNames, fromAccountName));
     }
 
-    public void internalTransfer() throws ExitProcessException {
-        try {
-            while (true) {
-                ArrayList<Account> accounts = bank.loggedInCustomer.getAccounts();
-                if (accounts.size() < 2) {
-                    out.println("You need at least two accounts to make an internal transfer");
-                    return;
-                }
-                List<String> accountNames = accounts.stream().map(Account::getName).toList();
-                String accountNameString = accounts.stream().map(Account::getName).collect(Collectors.joining(", "));
-                out.println(String.format("The names of your accounts are as follows: %s", accountNameString));
-                String fromAccountName;
-                while (true) {
-                    out.println("Enter the name of the account you would like to transfer money from. Press \"x\" to exit");
-                    fromAccountName = requestUserInput();
-                    boolean accountNameExists = accountNames.contains(fromAccountName);
-                    if (!accountNameExists) {
-                        out.println(String.format("No account with the name \"%s\" exists", fromAccountName));
-                        continue;
-                    }
-                    break;
-                }
-                String toAccountName;
-                while (true) {
-                    out.println("Enter the name of the account you would like to transfer money to. Press \"x\" to exit");
-                    toAccountName = requestUserInput();
-                    boolean accountNameExists = accountNames.contains(toAccountName);
-                    if (!accountNameExists) {
-                        out.println(String.format("No account with the name \"%s\" exists", toAccountName));
-                        continue;
-                    }
-                    if (toAccountName.equals(fromAccountName)) {
-                        out.println("Recipient account cannot be the same as donor account");
-                        continue;
-                    }
-                    break;
-                }
-                double amount;
-                while (true) {
-                    out.println(String.format("How much would like to transfer from \"%s\" to \"%s\"? Press \"x\" to exit", fromAccountName, toAccountName));
-                    String amountInput = requestUserInput();
-                    try {
-                        amount = Double.parseDouble(amountInput);
-                        break;
-                    } catch (NumberFormatException ex) {
-                        out.println("Please enter a valid number");
-                    }
-                }
+    private void askInternalTransferTo(List<String> accountNames, String fromAccountName) {
+        askAccountName("Enter the name of the account you would like to transfer money to. Press \"x\" to exit", accountNames, toAccountName -> {
+            if (toAccountName.equals(fromAccountName)) {
+                out.println("Recipient account cannot be the same as donor account");
+                askInternalTransferTo(accountNames, fromAccountName);
+                return;
+            }
+            askAmount(String.format("How much would like to transfer from \"%s\" to \"%s\"? Press \"x\" to exit", fromAccountName, toAccountName), amount -> {
                 try {
-                    bank.internalTransfer(fromAccountName, toAccountName, amount);
+                    bank.internalTransfer(session, fromAccountName, toAccountName, amount);
                 } catch (InsufficientFundsException ex) {
                     out.println(ex.getMessage());
-                    continue;
+                    internalTransfer();
+                    return;
                 }
                 out.println(String.format(
-                        "£%.2f successfully transferred from account \"%s\" to account \"%s\"",
-                        amount,
+                        "£%s successfully transferred from account \"%s\" to account \"%s\"",
+                        Money.format(amount),
                         fromAccountName,
                         toAccountName
                 ));
-                break;
+                loggedInUserMenu();
+            });
+        });
+    }
+
+    public void externalTransfer() {
+        // Get customer to transfer to
+        askOrExit("Enter the username of the customer you would like to transfer money to. Press \"x\" to exit", toCustomerName -> {
+            if (bank.usernameExists(toCustomerName) == null) {
+                out.println(String.format("No customer with the name \"%s\" exists", toCustomerName));
+                externalTransfer();
+                return;
             }
+            if (toCustomerName.equals(session.getCustomer().getUsername())) {
+                out.println("If you want to transfer money to yourself, please select \"Transfer money between my accounts\" from the main menu");
+                externalTransfer();
+                return;
+            }
+            // Get bank account to transfer from
+            askAccountName("Enter the name of the account you would like to transfer money from. Press \"x\" to exit", printAccountNames(), fromAccountName -> {
+                // Get amount to transfer
+                long balance = session.getCustomer().getAccountByName(fromAccountName).getBalance();
+                askAmount(String.format("There is £%s in the account \"%s\". How much would like to transfer to \"%s\"? Press \"x\" to exit", Money.format(balance), fromAccountName, toCustomerName), amount -> {
+                    // Do transfer
+                    try {
+                        bank.externalTransfer(session, toCustomerName, fromAccountName, amount);
+                    } catch (InsufficientFundsException ex) {
+                        out.println(ex.getMessage());
+                        externalTransfer();
+                        return;
+                    }
+                    out.println(String.format(
+                            "£%s successfully transferred from account \"%s\" to customer \"%s\"",
+                            Money.format(amount),
+                            fromAccountName,
+                            toCustomerName
+                    ));
+                    loggedInUserMenu();
+                });
+            });
+        });
+    }
 
-            //out.println(String.format("Account \"%s\" successfully deleted!", accountName));
+    /**
+     * Leaves the message just printed on screen for a while before the menu comes back. The handler carries on straight
+     * away and waits for input as usual; only the menu is printed later.
+     */
+    private void delayMenu(long millis) {
+        menuDelayMillis = millis;
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+    private void showLoggedInUserOptions() {
+        if (menuDelayMillis > 0) {
+            delayedMenu = delayedPrompts.schedule(this::displayLoggedInUserOptions, menuDelayMillis, TimeUnit.MILLISECONDS);
+            menuDelayMillis = 0;
+        } else {
+            displayLoggedInUserOptions();
         }
     }
 
-    public void externalTransfer() throws ExitProcessException {
-        try {
-            while (true) {
-                // Get customer to transfer to
-                List<String> customerNames = bank.getCustomerNames();
-                String toCustomerName;
-                while (true) {
-                    out.println("Enter the username of the customer you would like to transfer money to. Press \"x\" to exit");
-                    toCustomerName = requestUserInput();
-                    boolean customerNameExists = customerNames.contains(toCustomerName);
-                    if (!customerNameExists) {
-                        out.println(String.format("No customer with the name \"%s\" exists", toCustomerName));
-                    } else if (toCustomerName.equals(bank.loggedInCustomer.getUsername())) {
-                        out.println("If you want to transfer money to yourself, please select \"Transfer money between my accounts\" from the main menu");
-                    } else {
-                        break;
-                    }
-                }
-                // Get bank account to transfer from
-                ArrayList<Account> accounts = bank.loggedInCustomer.getAccounts();
-                List<String> accountNames = accounts.stream().map(Account::getName).toList();
-                String accountNameString = accounts.stream().map(Account::getName).collect(Collectors.joining(", "));
-                out.println(String.format("The names of your accounts are as follows: %s", accountNameString));
-                String fromAccountName;
-                while (true) {
-                    out.println("Enter the name of the account you would like to transfer money from. Press \"x\" to exit");
-                    fromAccountName = requestUserInput();
-                    boolean accountNameExists = accountNames.contains(fromAccountName);
-                    if (!accountNameExists) {
-                        out.println(String.format("No account with the name \"%s\" exists", fromAccountName));
-                        continue;
-                    }
-                    break;
-                }
-                // Get amount to transfer
-                Account fromAccount = bank.loggedInCustomer.getAccountByName(fromAccountName);
-                double balance = fromAccount.getBalance();
-                double amount;
-                while (true) {
-                    out.println(String.format("There is £%.2f in the account \"%s\". How much would like to transfer to \"%s\"? Press \"x\" to exit", balance, fromAccountName, toCustomerName));
-                    String amountInput = requestUserInput();
-                    try {
-                        amount = Double.parseDouble(amountInput);
-                        break;
-                    } catch (NumberFormatException ex) {
-                        out.println("Please enter a valid number");
-                    }
-                }
-                // Do transfer
-                try {
-                    bank.externalTransfer(toCustomerName, fromAccountName, amount);
-                } catch (InsufficientFundsException ex) {
-                    out.println(ex.getMessage());
-                    continue;
-                }
-                out.println(String.format(
-                        "£%.2f successfully transferred from account \"%s\" to customer \"%s\"",
-                        amount,
-                        fromAccountName,
-                        toCustomerName
-                ));
-                break;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /** Drops a menu still waiting to be shown, once the client has already answered or gone */
+    private void cancelDelayedMenu() {
+        if (delayedMenu != null) {
+            delayedMenu.cancel(false);
+            delayedMenu = null;
         }
     }
 
@@ -379,274 +423,256 @@ public class NewBankClientHandler extends Thread {
         );
     }
 
-    private void chooseOffer() throws IOException, InterruptedException {
+    private void chooseOffer() {
         out.println("Below are the available offers  -- Please choose the desired offer by its id");
-        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(pathMicroloanOffer))) {
-            String readLine;
-            AtomicReference<HashMap<String, String>> attributesMap = new AtomicReference<>(new HashMap<>());
-            List<MicroloanOffer> microloanOfferList = new ArrayList<>();
-            while ((readLine = bufferedReader.readLine()) != null) {
-                Arrays.stream(readLine.split(",")).map(String::trim).toList().forEach(e ->
-                        {
-                            String[] pair = e.split(":");
-                            attributesMap.get().put(pair[0], pair[1]);
-                        }
-                );
-                MicroloanOffer microloanOffer = new MicroloanOffer();
-                microloanOffer.setCustomerId(Integer.parseInt(attributesMap.get().get("customerId")));
-                microloanOffer.setAmount(Float.parseFloat(attributesMap.get().get("amount")));
-                microloanOffer.setInterestRate(Float.parseFloat(attributesMap.get().get("interestRate")));
-                microloanOffer.setId(Integer.parseInt(attributesMap.get().get("id")));
-                microloanOfferList.add(microloanOffer);
-                attributesMap.set(new HashMap<>());
-            }
-            List<MicroloanOffer> microloanOffers = microloanOfferList.stream().filter(e -> e.getCustomerId() != bank.loggedInCustomer.getId()).collect(Collectors.toList());
-            if(microloanOffers.isEmpty()){
-                out.println("Empty offers");
-                Thread.sleep(2000);
-                return;
+        MicroloanManagement microloanManagement = bank.getMicroloanManagement();
+        List<MicroloanOffer> microloanOffers = microloanManagement.getOffersByInterestRate().stream().filter(e -> e.getCustomerId() != session.getCustomer().getId()).toList();
+        if(microloanOffers.isEmpty()){
+            out.println("Empty offers");
+            delayMenu(2000);
+            loggedInUserMenu();
+            return;
+        }
+        microloanOffers.forEach(e -> out.println(e));
+        prompt = choice -> {
+            takeOffer(microloanManagement, choice);
+            loggedInUserMenu();
+        };
+    }
+
+    private void takeOffer(MicroloanManagement microloanManagement, String choice) {
+        long startNanos = System.nanoTime();
+        boolean completed = false;
+        try {
+            MicroloanOffer offer;
+            try {
+                offer = microloanManagement.getOffer(Integer.parseInt(choice));
+            } catch (NumberFormatException ex) {
+                offer = null;
             }
-            microloanOffers.forEach(e -> out.println(e));
-            String choice = in.readLine();
-            Optional<MicroloanOffer> offer = microloanOfferList.stream().filter(e -> e.getId() == Integer.parseInt(choice)).findFirst();
-            if (offer.isEmpty()) {
+            if (offer == null) {
                 out.println("Error occurred in offers");
-                Thread.sleep(2000);
+                delayMenu(2000);
                 return;
             }
-            if(bank.getCustomers().get(offer.get().getCustomerId()) == null){
+            if(bank.getCustomers().get(offer.getCustomerId()) == null){
                 out.println("No existing customer in specific offer");
-                Thread.sleep(2000);
+                delayMenu(2000);
                 return;
             }
-            Account account = bank.getCustomers().get(offer.get().getCustomerId()).getAccountByName("main");
-            if (account.getBalance() < offer.get().getAmount()) {
+            Account account = bank.getCustomers().get(offer.getCustomerId()).getAccountByName("main");
+            if (account.getBalance() < offer.getAmount()) {
                 out.println("There are not enough funds");
-                Thread.sleep(2000);
+                delayMenu(2000);
+                return;
+            }
+            // take the offer off the book before moving money, so it can only be accepted once
+            if (!microloanManagement.takeOffer(offer)) {
+                out.println("Error occurred in offers");
+                delayMenu(2000);
                 return;
             }
             out.println("Proceed with transfer..");
-            Double previousLoanerAmount = bank.getCustomers().get(offer.get().getCustomerId()).getAccountByName("main").getBalance();
-            Double previousTakerAmount = bank.getCustomers().get(bank.loggedInCustomer.getId()).getAccountByName("main").getBalance();
-            bank.getCustomers().get(offer.get().getCustomerId()).getAccountByName("main").setBalance(account.getBalance() - offer.get().getAmount());
-            bank.getCustomers().get(bank.loggedInCustomer.getId()).getAccountByName("main").setBalance(previousTakerAmount + offer.get().getAmount());
-            replaceBalanceInFiles(previousLoanerAmount, previousTakerAmount, bank.getCustomers().get(offer.get().getCustomerId()), bank.getCustomers().get(bank.loggedInCustomer.getId()));
+            Account takerAccount = bank.getCustomers().get(session.getCustomer().getId()).getAccountByName("main");
+            try {
+                bank.transfer(account, takerAccount, offer.getAmount());
+            } catch (InsufficientFundsException ex) {
+                microloanManagement.addOffer(offer);
+                out.println("There are not enough funds");
+                delayMenu(2000);
+                return;
+            }
             Microloan microloan = new Microloan();
-            microloan.setAmount(offer.get().getAmount());
-            microloan.setInterest(offer.get().getInterestRate());
+            microloan.setAmount(offer.getAmount());
+            microloan.setInterest(offer.getInterestRate());
             microloan.setRepaid(false);
-            microloan.setLoaner(bank.getCustomers().get(offer.get().getCustomerId()));
-            microloan.setTaker(bank.getCustomers().get(bank.loggedInCustomer.getId()));
+            microloan.setLoaner(bank.getCustomers().get(offer.getCustomerId()));
+            microloan.setTaker(bank.getCustomers().get(session.getCustomer().getId()));
             microloan.setDateOfExpiry(LocalDateTime.now().plusWeeks(1).toString());
-            storeMicroLoan(microloan);
-            removeLine( offer.get().getId() , pathMicroloanOffer);
             bank.getMicroloanManagement().getMicroloanList().add(microloan);
-            out.println("Transaction Completed -- Redirecting to Main menu");
-            Thread.sleep(2000);
-        }
-    }
-
-    private void storeMicroLoan(Microloan microloan) throws IOException {
-        try (FileWriter fw = new FileWriter(pathMicroloan, true); BufferedWriter bw = new BufferedWriter(fw)) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("fromCustomerId:" + microloan.getLoaner().getId() + ",");
-            sb.append("toCustomerId:" + microloan.getTaker().getId() + ",");
-            sb.append("amount:" + microloan.getAmount() + ",");
-            sb.append("interestRate:" + microloan.getInterest() + ",");
-            sb.append("expiryDate:" + microloan.getDateOfExpiry() + ",");
-            sb.append("rePaid:" + microloan.getRepaid() + ",");
-            sb.append("\n");
-            bw.write(sb.toString());
-        }
-    }
-
-    private void replaceBalanceInFiles(Double previousLoanerAmount, Double previousTakerAmount, Customer loaner, Customer taker) throws IOException {
-
-        HashMap<String, String> oldToNewLine = new HashMap<>();
-        List<String> fileContent = new ArrayList<>(Files.readAllLines(Paths.get(pathMicroloanAccount), StandardCharsets.UTF_8));
-        Optional<String> lineToChangeLoaner = fileContent.stream().filter(e -> e.contains("id:" + loaner.getAccountByName("main").getId())).findFirst();
-        if (lineToChangeLoaner.isEmpty()) {
-            out.println("Loaner funds insufficient");
-            return;
-        }
-        oldToNewLine.put(lineToChangeLoaner.get(), lineToChangeLoaner.get().replace("balance:" + previousLoanerAmount, "balance:" + loaner.getAccountByName("main").getBalance()));
-        Optional<String> lineToChangeTaker = fileContent.stream().filter(e -> e.contains("id:" + taker.getAccountByName("main").getId())).findFirst();
-        if (lineToChangeTaker.isEmpty()) {
-            out.println("Taker funds insufficient");
-            return;
+            completed = awaitPersisted(CompletableFuture.allOf(bank.storeMicroloan(microloan), bank.persistMicroloanOffers()));
+            if (completed) {
+                out.println("Transaction Completed -- Redirecting to Main menu");
+            }
+            delayMenu(2000);
+        } finally {
+            Metrics.record(Metrics.Operation.MICROLOAN_OFFER_CHOICE, startNanos, completed);
         }
-        oldToNewLine.put(lineToChangeTaker.get(), lineToChangeTaker.get().replace("balance:" + previousTakerAmount, "balance:" + (taker.getAccountByName("main").getBalance())));
-        fileContent.forEach(e ->
-                {
-                    oldToNewLine.forEach((key, value) -> {
-                        if (e.equals(key)) {
-                            fileContent.set(fileContent.indexOf(e), value);
-                        }
-                    });
-                }
-        );
-
-        Files.write(Paths.get(pathMicroloanAccount), fileContent, StandardCharsets.UTF_8);
     }
 
     private void requestMicroLoan() {
+        ask("Please submit the desired amount", amount ->
+                ask("Please submit the desired interest rate", interestRate -> {
+                    submitMicroloanRequest(amount, interestRate);
+                    loggedInUserMenu();
+                }));
+    }
 
+    private void submitMicroloanRequest(String amount, String interestRateInput) {
         try {
-            out.println("Please submit the desired amount");
-            String amount = in.readLine();
-            out.println("Please submit the desired interest rate");
-            String interestRate = in.readLine();
-            if (Float.parseFloat(interestRate) > 0.5) {
+            float interestRate = Float.parseFloat(interestRateInput);
+            // NaN fails both comparisons, so it is turned away too
+            if (!(interestRate >= 0 && interestRate <= 0.5)) {
                 out.println("Not a valid interestRate --> Redirecting to main menu");
-                Thread.sleep(2000);
+                delayMenu(2000);
                 return;
             }
             MicroLoanRequest microLoanRequest = new MicroLoanRequest();
-            microLoanRequest.setAmount(Float.parseFloat(amount));
-            microLoanRequest.setCustomer(bank.getLoggedInCustomer());
-            microLoanRequest.setInterestRate(Float.parseFloat(interestRate));
-            bank.getMicroloanManagement().getMicroLoanRequestList().add(microLoanRequest);
-            persistMicroloanReq(microLoanRequest);
-        } catch (Exception e) {
+            microLoanRequest.setAmount(Money.parsePositive(amount));
+            microLoanRequest.setCustomer(session.getCustomer());
+            microLoanRequest.setInterestRate(interestRate);
+            microLoanRequest.setId(bank.getIdSequences().nextId(IdSequences.Entity.MICROLOAN_REQUEST));
+            microLoanRequest.setCustomerId(session.getCustomer().getId());
+            List<Microloan> microloans = bank.submitMicroloanRequest(microLoanRequest);
+            for (Microloan microloan : microloans) {
+                out.println(String.format("Matched with an offer: £%s at an interest rate of %s", Money.format(microloan.getAmount()), microloan.getInterest()));
+            }
+            // the fills, the offer book and the open requests are queued by the bank; wait for all of them
+            if (!awaitPersisted(bank.persisted())) {
+                return;
+            }
+            // whatever the offer book could not cover stays open as a request
+            if (microLoanRequest.getAmount() > 0) {
+                out.println(String.format("Request for £%s submitted", Money.format(microLoanRequest.getAmount())));
+            }
+        } catch (RuntimeException e) {
             out.println("Please check again your input");
         }
     }
 
-    private void persistMicroloanReq(MicroLoanRequest microLoanRequest) throws IOException {
-        BufferedReader input = new BufferedReader(new FileReader(pathMicroloanReq));
-        String line;
-        String last = "";
-        int id = 1;
-        while ((line = input.readLine()) != null) {
-            last = line;
-        }
-        input.close();
-        if (!last.isEmpty()) {
-            last = last.substring(0, last.indexOf(",")).trim();
-            String[] pair = last.split(":");
-            id = Integer.parseInt(pair[1]) + 1;
+    /** Waits until a queued write is on disk, telling the customer if it failed */
+    private boolean awaitPersisted(CompletableFuture<Void> write) {
+        try {
+            write.join();
+            return true;
+        } catch (CompletionException ex) {
+            out.println("The transaction went through but could not be saved, please contact NewBank");
+            return false;
         }
+    }
 
-        try {
-            FileWriter fw = new FileWriter(pathMicroloanReq, true);
-            BufferedWriter bw = new BufferedWriter(fw);
-            StringBuilder sb = new StringBuilder();
-            sb.append("id:" + id + ",");
-            sb.append("customerId:" + microLoanRequest.getCustomer().getId() + ",");
-            sb.append("amount:" + microLoanRequest.getAmount() + ",");
-            sb.append("interestRate:" + microLoanRequest.getInterestRate());
-            sb.append("\n");
-            bw.write(sb.toString());
-            bw.close();
-        } catch (IOException ex) {
-            ex.printStackTrace();
+    private void acceptMicroloan() {
+        out.println("Below are the available microloan requests -- Please choose the desired request by its id");
+        List<MicroLoanRequest> microLoanRequestList = bank.getMicroloanManagement().getMicroLoanRequestList().stream()
+                .filter(e -> e.getCustomerId() != session.getCustomer().getId()).collect(Collectors.toList());
+        if(microLoanRequestList.isEmpty()){
+            out.println("Empty requests");
+            delayMenu(2000);
+            loggedInUserMenu();
+            return;
         }
+        microLoanRequestList.forEach(e -> out.println(e));
+        prompt = userChoice -> {
+            acceptRequest(microLoanRequestList, userChoice);
+            loggedInUserMenu();
+        };
     }
 
-    private void acceptMicroloan() throws IOException {
+    private void acceptRequest(List<MicroLoanRequest> microLoanRequestList, String userChoice) {
+        long startNanos = System.nanoTime();
+        boolean completed = false;
         try {
-            out.println("Below are the available microloan requests -- Please choose the desired request by its id");
-            List<MicroLoanRequest> microLoanRequestList = bank.getMicroloanManagement().getMicroLoanRequestList();
-            microLoanRequestList= microLoanRequestList.stream().filter(e->e.getCustomerId() != bank.loggedInCustomer.getId()).collect(Collectors.toList());
-            if(microLoanRequestList.isEmpty()){
-                out.println("Empty requests");
-                Thread.sleep(2000);
-                return;
-            }
-            microLoanRequestList.forEach(e -> out.println(e));
-            String userChoice = in.readLine();
             Optional<MicroLoanRequest> microLoanRequest = microLoanRequestList.stream().filter(e -> e.getId() == Integer.parseInt(userChoice)).findFirst();
             if (microLoanRequest.isEmpty()) {
                 out.println("no request matches");
-                Thread.sleep(2000);
+                delayMenu(2000);
                 return;
             }
-            Account account = bank.getCustomers().get(bank.loggedInCustomer.getId()).getAccountByName("main");
+            Account account = bank.getCustomers().get(session.getCustomer().getId()).getAccountByName("main");
             if (account.getBalance() < microLoanRequest.get().getAmount()) {
-                Thread.sleep(2000);
                 out.println("There are not enough funds");
+                delayMenu(2000);
                 return;
             }
             if(bank.getCustomers().get(microLoanRequest.get().getCustomerId()) == null){
                 out.println("No existing customer in specific request");
-                Thread.sleep(2000);
+                delayMenu(2000);
+                return;
+            }
+            // take the request off the book before moving money, so it can only be accepted once
+            if (!bank.getMicroloanManagement().removeMicroLoanRequest(microLoanRequest.get())) {
+                out.println("no request matches");
+                delayMenu(2000);
                 return;
             }
             out.println("Proceed with transfer..");
-            Double previousTakerAmount = bank.getCustomers().get(microLoanRequest.get().getCustomerId()).getAccountByName("main").getBalance();
-            Double previousLoanerAmount = bank.getCustomers().get(bank.loggedInCustomer.getId()).getAccountByName("main").getBalance();
-            bank.getCustomers().get(microLoanRequest.get().getCustomerId()).getAccountByName("main").setBalance(previousTakerAmount + microLoanRequest.get().getAmount());
-            bank.getCustomers().get(bank.loggedInCustomer.getId()).getAccountByName("main").setBalance(previousLoanerAmount - microLoanRequest.get().getAmount());
-            replaceBalanceInFiles(previousLoanerAmount, previousTakerAmount, bank.getCustomers().get(bank.loggedInCustomer.getId()), bank.getCustomers().get(microLoanRequest.get().getCustomerId()));
+            Account takerAccount = bank.getCustomers().get(microLoanRequest.get().getCustomerId()).getAccountByName("main");
+            try {
+                bank.transfer(account, takerAccount, microLoanRequest.get().getAmount());
+            } catch (InsufficientFundsException ex) {
+                bank.getMicroloanManagement().restoreMicroLoanRequest(microLoanRequest.get());
+                out.println("There are not enough funds");
+                delayMenu(2000);
+                return;
+            }
             Microloan microloan = new Microloan();
             microloan.setAmount(microLoanRequest.get().getAmount());
             microloan.setInterest(microLoanRequest.get().getInterestRate());
             microloan.setRepaid(false);
-            microloan.setLoaner(bank.getCustomers().get(bank.loggedInCustomer.getId()));
+            microloan.setLoaner(bank.getCustomers().get(session.getCustomer().getId()));
             microloan.setTaker(bank.getCustomers().get(microLoanRequest.get().getCustomerId()));
             microloan.setDateOfExpiry(LocalDateTime.now().plusWeeks(1).toString());
-            storeMicroLoan(microloan);
-            removeLine(microLoanRequest.get().getId(),pathMicroloanReq);
-            bank.getMicroloanManagement().getMicroLoanRequestList().remove(microLoanRequest.get());
             bank.getMicroloanManagement().getMicroloanList().add(microloan);
-            out.println("Transaction Completed -- Redirecting to Main menu");
-            Thread.sleep(3000);
-        } catch (Exception e) {
+            completed = awaitPersisted(CompletableFuture.allOf(bank.storeMicroloan(microloan), bank.persistMicroloanRequests()));
+            if (completed) {
+                out.println("Transaction Completed -- Redirecting to Main menu");
+            }
+            delayMenu(3000);
+        } catch (RuntimeException e) {
             out.println("Please check again your input");
+        } finally {
+            Metrics.record(Metrics.Operation.MICROLOAN_ACCEPT, startNanos, completed);
         }
-
-    }
-    public void removeLine(Integer id,String path) throws IOException
-    {
-        File file = new File(path);
-        List<String> out = Files.lines(file.toPath())
-                .filter(line -> !line.contains("id:"+id))
-                .collect(Collectors.toList());
-        Files.write(file.toPath(), out, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
     }
 
-    private void displayActiveMicroloans() throws IOException {
+    private void displayActiveMicroloans() {
         List<Microloan> microLoanRequestList = bank.getMicroloanManagement().getMicroloanList();
 
         out.println("Active requests");
-        List<Microloan> microloansReq = microLoanRequestList.stream().filter(e -> e.getTaker().getId() == bank.loggedInCustomer.getId()).collect(Collectors.toList());
+        List<Microloan> microloansReq = microLoanRequestList.stream().filter(e -> e.getTaker().getId() == session.getCustomer().getId()).collect(Collectors.toList());
         microloansReq.forEach(e -> out.println(e));
-        List<Microloan> microloansAcc = microLoanRequestList.stream().filter(e -> e.getLoaner().getId() == bank.loggedInCustomer.getId()).collect(Collectors.toList());
+        List<Microloan> microloansAcc = microLoanRequestList.stream().filter(e -> e.getLoaner().getId() == session.getCustomer().getId()).collect(Collectors.toList());
         out.println("Active accepted requests");
         microloansAcc.forEach(e -> out.println(e));
-        while (true) {
-            out.println("If you want to exit type exit");
-            String exit = in.readLine();
-            if(exit.equals("exit")){
-                break;
+        askToLeaveMicroloans();
+    }
+
+    private void askToLeaveMicroloans() {
+        ask("If you want to exit type exit", exit -> {
+            if (exit.equals("exit")) {
+                loggedInUserMenu();
+            } else {
+                askToLeaveMicroloans();
             }
-        }
+        });
     }
 
     /**
-     * Process logged-in user requests in an interminable loop
+     * Shows the logged-in user options and handles the choice; every option comes back here once it is done
      */
-    public void loggedInUserLoop() throws IOException, LogoutException {
-        while (true) {
-            try {
-                bank.persistData();
-                displayLoggedInUserOptions();
-                String request = in.readLine();
-                switch (request) {
-                    case "1" -> out.println(bank.loggedInCustomer.accountsToString());
-                    case "2" -> createBankAccount();
-                    case "3" -> deleteBankAccount();
-                    case "4" -> internalTransfer();
-                    case "5" -> externalTransfer();
-                    case "6" -> chooseOffer();
-                    case "7" -> requestMicroLoan();
-                    case "8" -> acceptMicroloan();
-                    case "9" -> displayActiveMicroloans();
-                    case "10" -> throw new LogoutException();
-
+    public void loggedInUserMenu() {
+        showLoggedInUserOptions();
+        prompt = request -> {
+            cancelDelayedMenu();
+            switch (request) {
+                case "1" -> {
+                    out.println(session.getCustomer().accountsToString());
+                    loggedInUserMenu();
+                }
+                case "2" -> createBankAccount();
+                case "3" -> deleteBankAccount();
+                case "4" -> internalTransfer();
+                case "5" -> externalTransfer();
+                case "6" -> chooseOffer();
+                case "7" -> requestMicroLoan();
+                case "8" -> acceptMicroloan();
+                case "9" -> displayActiveMicroloans();
+                case "10" -> {
+                    session.logout();
+                    mainMenu();
                 }
-            } catch (ExitProcessException | InterruptedException ignored) {
+                default -> loggedInUserMenu();
             }
-        }
+        };
     }
 }
@@ -1,24 +1,117 @@
 package newbank.server;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 public class NewBankServer extends Thread{
-	private ServerSocket server;
-	
+	private static final int DEFAULT_PORT = 14002;
+	private static final int DEFAULT_BINARY_PORT = 14003;
+	private static final int DEFAULT_MAX_CONNECTIONS = 10000;
+	private static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 300;
+	private static final int DEFAULT_METRICS_PORT = 14004;
+
+	private final ServerSocket server;
+	private final ServerSocket binaryServer;
+	private final ServerMode mode;
+	private final Semaphore connectionPermits;
+	private final int idleTimeoutMillis;
+	private final ExecutorService executor;
+	private final SelectorFrontEnd selectorFrontEnd;
+
+	/** Creates a client handler for an accepted connection */
+	private interface HandlerFactory {
+		Runnable create(Socket s) throws IOException;
+	}
+
 	public NewBankServer(int port) throws IOException {
-		server = new ServerSocket(port);
+		this(port, DEFAULT_BINARY_PORT, ServerMode.THREAD, DEFAULT_MAX_CONNECTIONS, DEFAULT_IDLE_TIMEOUT_SECONDS * 1000);
+	}
+
+	/**
+	 * @param binaryPort port for the {@link BinaryProtocol}, or -1 to serve only the text menu
+	 */
+	public NewBankServer(int port, int binaryPort, ServerMode mode, int maxConnections, int idleTimeoutMillis) throws IOException {
+		this.mode = mode;
+		this.connectionPermits = new Semaphore(maxConnections);
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.executor = mode == ServerMode.VIRTUAL ? newVirtualThreadExecutor() : null;
+		if (mode == ServerMode.SELECTOR) {
+			ServerSocketChannel textChannel = openChannel(port);
+			ServerSocketChannel binaryChannel = binaryPort < 0 ? null : openChannel(binaryPort);
+			server = textChannel.socket();
+			binaryServer = binaryChannel == null ? null : binaryChannel.socket();
+			selectorFrontEnd = new SelectorFrontEnd(textChannel, binaryChannel, connectionPermits, idleTimeoutMillis);
+		} else {
+			server = new ServerSocket(port);
+			binaryServer = binaryPort < 0 ? null : new ServerSocket(binaryPort);
+			selectorFrontEnd = null;
+		}
+	}
+
+	private static ServerSocketChannel openChannel(int port) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.bind(new InetSocketAddress(port));
+		return channel;
 	}
-	
+
 	public void run() {
-		// starts up a new client handler thread to receive incoming connections and process requests
-		System.out.println("New Bank Server listening on " + server.getLocalPort());
+		System.out.println("New Bank Server listening on " + server.getLocalPort() + " in " + mode + " mode");
+		if (binaryServer != null) {
+			System.out.println("Binary protocol listening on " + binaryServer.getLocalPort());
+		}
+		if (selectorFrontEnd != null) {
+			// both ports are served from the selector running on this thread
+			selectorFrontEnd.run();
+			return;
+		}
+		if (binaryServer != null) {
+			Thread binaryAcceptor = new Thread(() -> acceptLoop(binaryServer, BinaryClientHandler::new), "newbank-binary-acceptor");
+			binaryAcceptor.setDaemon(true);
+			binaryAcceptor.start();
+		}
+		acceptLoop(server, NewBankClientHandler::new);
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/** Starts up a new client handler for every incoming connection, up to the connection limit shared by both ports */
+	private void acceptLoop(ServerSocket server, HandlerFactory handlerFactory) {
 		try {
 			while (true) {
 				Socket s = server.accept();
-				NewBankClientHandler clientHandler = new NewBankClientHandler(s);
-				clientHandler.start();
+				if (!connectionPermits.tryAcquire()) {
+					rejectConnection(s);
+					continue;
+				}
+				try {
+					s.setSoTimeout(idleTimeoutMillis);
+					Runnable clientHandler = handlerFactory.create(s);
+					Runnable task = () -> {
+						Metrics.sessionOpened();
+						try {
+							clientHandler.run();
+						} finally {
+							Metrics.sessionClosed();
+							connectionPermits.release();
+						}
+					};
+					if (executor == null) {
+						new Thread(task).start();
+					} else {
+						executor.execute(task);
+					}
+				} catch (IOException ex) {
+					connectionPermits.release();
+					discard(s);
+				}
 			}
 		} catch (IOException ex) {
 			ex.printStackTrace();
@@ -31,9 +124,65 @@ public class NewBankServer extends Thread{
 			}
 		}
 	}
-	
+
+	/** Turns away a connection over the limit; anything going wrong with it only affects that connection */
+	private void rejectConnection(Socket s) {
+		try {
+			PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+			out.println("NewBank is at capacity, please try again later");
+		} catch (IOException ignored) {
+			// the client has gone already, so there is no one left to tell
+		} finally {
+			discard(s);
+		}
+	}
+
+	private static void discard(Socket s) {
+		try {
+			s.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	/**
+	 * Virtual threads are looked up reflectively so the server still builds on the Java 17 toolchain the project targets.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException("Virtual thread mode requires Java 21 or later", ex);
+		}
+	}
+
 	public static void main(String[] args) throws IOException {
-		// starts a new NewBankServer thread on a specified port number
-		new NewBankServer(14002).start();
+		// starts a new NewBankServer thread, e.g. --mode=selector --max-connections=50000 --idle-timeout=120 --binary-port=-1
+		// metrics are served on localhost at --metrics-port, or only through JMX with --metrics-port=-1
+		int port = DEFAULT_PORT;
+		int binaryPort = DEFAULT_BINARY_PORT;
+		ServerMode mode = ServerMode.THREAD;
+		int maxConnections = DEFAULT_MAX_CONNECTIONS;
+		int idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT_SECONDS;
+		int metricsPort = DEFAULT_METRICS_PORT;
+		for (String arg : args) {
+			String[] option = arg.split("=", 2);
+			switch (option[0]) {
+				case "--port" -> port = Integer.parseInt(option[1]);
+				case "--binary-port" -> binaryPort = Integer.parseInt(option[1]);
+				case "--mode" -> mode = ServerMode.valueOf(option[1].toUpperCase());
+				case "--max-connections" -> maxConnections = Integer.parseInt(option[1]);
+				case "--idle-timeout" -> idleTimeoutSeconds = Integer.parseInt(option[1]);
+				case "--metrics-port" -> metricsPort = Integer.parseInt(option[1]);
+				default -> throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		// load the bank before accepting connections, so a damaged snapshot stops the server here
+		NewBank.getBank();
+		Metrics.registerMBeans();
+		if (metricsPort >= 0) {
+			Metrics.startHttpEndpoint(metricsPort);
+			System.out.println("Metrics on http://localhost:" + metricsPort + "/metrics");
+		}
+		new NewBankServer(port, binaryPort, mode, maxConnections, idleTimeoutSeconds * 1000).start();
 	}
 }
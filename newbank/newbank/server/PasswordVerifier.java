@@ -0,0 +1,107 @@
+package newbank.server;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs password hashing and verification on a fixed pool with one thread per core, so however many clients log in at
+ * once the key derivation never uses more CPU than the machine has, and no lock is held while it runs.
+ * <p>
+ * A successful verification is remembered as an HMAC of the password under a key generated at startup, so a customer
+ * logging in again skips the key derivation. Only successes are cached: every wrong password still pays the full cost.
+ */
+public class PasswordVerifier {
+	private static final int MAX_CACHED = 10_000;
+
+	private final CredentialHasher hasher;
+	private final ExecutorService workers;
+	/** Stored value to the HMAC of its password, in access order so the least recently used entry goes first */
+	private final Map<String, byte[]> verified = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+	private final ThreadLocal<Mac> cacheMac;
+
+	public PasswordVerifier(CredentialHasher hasher) {
+		this.hasher = hasher;
+		AtomicInteger threadCount = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+			Thread thread = new Thread(runnable, "newbank-password-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		byte[] key = new byte[32];
+		new SecureRandom().nextBytes(key);
+		SecretKeySpec cacheKey = new SecretKeySpec(key, "HmacSHA256");
+		cacheMac = ThreadLocal.withInitial(() -> {
+			try {
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(cacheKey);
+				return mac;
+			} catch (GeneralSecurityException ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+	}
+
+	public String hash(String password) {
+		String hashed = await(workers.submit(() -> hasher.hash(password)));
+		if (hashed == null) {
+			throw new IllegalStateException("Interrupted while hashing a password");
+		}
+		return hashed;
+	}
+
+	/** Checks a password against a stored value, returning false if the calling thread is interrupted while waiting */
+	public boolean verify(String password, String stored) {
+		byte[] mac = mac(password);
+		byte[] cached;
+		synchronized (verified) {
+			cached = verified.get(stored);
+		}
+		if (cached != null && MessageDigest.isEqual(cached, mac)) {
+			return true;
+		}
+		Boolean correct = await(workers.submit(() -> hasher.verify(password, stored)));
+		if (correct != null && correct) {
+			synchronized (verified) {
+				verified.put(stored, mac);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	public boolean needsRehash(String stored) {
+		return hasher.needsRehash(stored);
+	}
+
+	private byte[] mac(String password) {
+		return cacheMac.get().doFinal(password.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static <T> T await(Future<T> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			result.cancel(true);
+			return null;
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause());
+		}
+	}
+}
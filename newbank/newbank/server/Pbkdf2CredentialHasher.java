@@ -0,0 +1,95 @@
+package newbank.server;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PBKDF2-HMAC-SHA256 hasher storing {@code pbkdf2-sha256$iterations$salt$hash} with a random salt per password.
+ * <p>
+ * It still verifies the unsalted MD5 values the bank used to store, and reports them (and hashes made with fewer
+ * iterations than configured) as needing a rehash, so customers are migrated as they log in. Key factories and digests
+ * are not thread-safe and costly to look up, so each thread keeps its own.
+ */
+public class Pbkdf2CredentialHasher implements CredentialHasher {
+	/** System property overriding the number of iterations used for new hashes */
+	public static final String ITERATIONS_PROPERTY = "newbank.password.iterations";
+	public static final int DEFAULT_ITERATIONS = 210_000;
+
+	private static final String PREFIX = "pbkdf2-sha256";
+	private static final int SALT_BYTES = 16;
+	private static final int HASH_BITS = 256;
+
+	private static final ThreadLocal<SecretKeyFactory> keyFactory = ThreadLocal.withInitial(() -> {
+		try {
+			return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+		} catch (GeneralSecurityException ex) {
+			throw new IllegalStateException(ex);
+		}
+	});
+	private static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (GeneralSecurityException ex) {
+			throw new IllegalStateException(ex);
+		}
+	});
+
+	private final int iterations;
+	private final SecureRandom random = new SecureRandom();
+
+	public Pbkdf2CredentialHasher() {
+		this(Integer.getInteger(ITERATIONS_PROPERTY, DEFAULT_ITERATIONS));
+	}
+
+	public Pbkdf2CredentialHasher(int iterations) {
+		this.iterations = iterations;
+	}
+
+	@Override
+	public String hash(String password) {
+		byte[] salt = new byte[SALT_BYTES];
+		random.nextBytes(salt);
+		Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+		return PREFIX + "$" + iterations + "$" + base64.encodeToString(salt) + "$"
+				+ base64.encodeToString(derive(password, salt, iterations));
+	}
+
+	@Override
+	public boolean verify(String password, String stored) {
+		String[] parts = stored.split("\\$");
+		if (parts.length != 4 || !parts[0].equals(PREFIX)) {
+			return MessageDigest.isEqual(legacyHash(password).getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+		}
+		Base64.Decoder base64 = Base64.getDecoder();
+		byte[] expected = base64.decode(parts[3]);
+		return MessageDigest.isEqual(expected, derive(password, base64.decode(parts[2]), Integer.parseInt(parts[1])));
+	}
+
+	@Override
+	public boolean needsRehash(String stored) {
+		String[] parts = stored.split("\\$");
+		return parts.length != 4 || !parts[0].equals(PREFIX) || Integer.parseInt(parts[1]) < iterations;
+	}
+
+	private static byte[] derive(String password, byte[] salt, int iterations) {
+		PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+		try {
+			return keyFactory.get().generateSecret(spec).getEncoded();
+		} catch (GeneralSecurityException ex) {
+			throw new IllegalStateException(ex);
+		} finally {
+			spec.clearPassword();
+		}
+	}
+
+	/** The unsalted MD5 hex (through BigInteger, so signed and without leading zeros) that customer.csv used to hold */
+	private static String legacyHash(String password) {
+		return new BigInteger(md5.get().digest(password.getBytes(StandardCharsets.UTF_8))).toString(16);
+	}
+}
@@ -0,0 +1,148 @@
+package newbank.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Single writer thread for the files that are written outside the journal, so client threads never wait on the disk
+ * while holding anything and no two writes to the same file can interleave.
+ * <p>
+ * Writes are queued with a future that completes once the write is done, and run in order in batches. A write that
+ * rewrites a whole file from current state can be given a key: when a later write with the same key is in the same
+ * batch, the earlier one is skipped and its future completes with the later one. The queue is bounded, so submitting
+ * blocks while the writer is that far behind.
+ */
+public class PersistenceQueue {
+	public interface Write {
+		void run() throws IOException;
+	}
+
+	private static final int CAPACITY = 10_000;
+	private static final int MAX_BATCH = 256;
+
+	private static class Task {
+		final Object key;
+		final Write write;
+		final CompletableFuture<Void> done = new CompletableFuture<>();
+
+		Task(Object key, Write write) {
+			this.key = key;
+			this.write = write;
+		}
+	}
+
+	private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(CAPACITY);
+	private final Thread writer;
+	/** Queued last by close, the writer stops once it has run everything before it */
+	private final Task stop = new Task(null, () -> {
+	});
+	/** Held shared to queue a write and exclusively to close, so nothing can be queued behind the stop task */
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+	private boolean closed;
+
+	public PersistenceQueue() {
+		writer = new Thread(this::drain, "newbank-persistence");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public CompletableFuture<Void> submit(Write write) {
+		return submit(null, write);
+	}
+
+	/** Queues a write that may be coalesced with later writes of the same key */
+	public CompletableFuture<Void> submit(Object key, Write write) {
+		Task task = new Task(key, write);
+		closeLock.readLock().lock();
+		try {
+			if (closed) {
+				task.done.completeExceptionally(new IllegalStateException("Persistence queue is closed"));
+			} else {
+				queue.put(task);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			task.done.completeExceptionally(ex);
+		} finally {
+			closeLock.readLock().unlock();
+		}
+		return task.done;
+	}
+
+	/** Completes once every write queued before it has run */
+	public CompletableFuture<Void> barrier() {
+		return submit(() -> {
+		});
+	}
+
+	private void drain() {
+		List<Task> batch = new ArrayList<>(MAX_BATCH);
+		Map<Object, Task> latest = new HashMap<>();
+		boolean stopped = false;
+		while (!stopped) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException ex) {
+				// nothing interrupts the writer, it only stops once close has queued the stop task
+				continue;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			for (Task task : batch) {
+				if (task.key != null) {
+					latest.put(task.key, task);
+				}
+			}
+			for (Task task : batch) {
+				Task superseding = task.key == null ? task : latest.get(task.key);
+				if (superseding != task) {
+					superseding.done.whenComplete((ignored, failure) -> {
+						if (failure == null) {
+							task.done.complete(null);
+						} else {
+							task.done.completeExceptionally(failure);
+						}
+					});
+					continue;
+				}
+				try {
+					task.write.run();
+					task.done.complete(null);
+				} catch (IOException | RuntimeException ex) {
+					ex.printStackTrace();
+					task.done.completeExceptionally(ex);
+				}
+			}
+			// close queues the stop task last, so a batch holding it holds everything that was ever queued
+			stopped = batch.get(batch.size() - 1) == stop;
+			batch.clear();
+			latest.clear();
+		}
+	}
+
+	/** Runs everything already queued, then stops the writer; later submissions fail */
+	public void close() {
+		closeLock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.put(stop);
+		} catch (InterruptedException ex) {
+			// the stop task is not queued, so the writer carries on with what is queued and nothing is left waiting
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			closeLock.writeLock().unlock();
+		}
+		stop.done.join();
+	}
+}
@@ -0,0 +1,226 @@
+package newbank.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming reader for the {@code key:value,key:value} record files.
+ * <p>
+ * The file is read through a fixed char buffer and each row is scanned once to record where its keys and values
+ * start and end. Numeric fields are parsed straight from those offsets, so loading a row allocates nothing apart from
+ * the strings a caller explicitly asks for.
+ */
+public class RecordReader implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_FIELDS = 16;
+
+	private final Reader reader;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int bufferPosition;
+	private int bufferLimit;
+
+	private char[] row = new char[256];
+	private CharBuffer rowView = CharBuffer.wrap(row);
+	private int rowLength;
+	private final int[] keyStart = new int[MAX_FIELDS];
+	private final int[] keyEnd = new int[MAX_FIELDS];
+	private final int[] valueEnd = new int[MAX_FIELDS];
+	private int fieldCount;
+	private long rowCount;
+
+	public RecordReader(File file) throws IOException {
+		reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+	}
+
+	/** Advances to the next non-blank row, skipping {@code #} lines such as checksum trailers, returning false at the end of the file */
+	public boolean next() throws IOException {
+		while (readRow()) {
+			if (rowLength > 0 && row[0] == '#') {
+				continue;
+			}
+			scanFields();
+			if (fieldCount > 0) {
+				rowCount++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean readRow() throws IOException {
+		rowLength = 0;
+		while (true) {
+			if (bufferPosition == bufferLimit) {
+				bufferLimit = reader.read(buffer, 0, BUFFER_SIZE);
+				bufferPosition = 0;
+				if (bufferLimit <= 0) {
+					bufferLimit = 0;
+					return rowLength > 0;
+				}
+			}
+			char c = buffer[bufferPosition++];
+			if (c == '\n') {
+				return true;
+			}
+			if (c != '\r') {
+				if (rowLength == row.length) {
+					char[] larger = new char[row.length * 2];
+					System.arraycopy(row, 0, larger, 0, rowLength);
+					row = larger;
+					rowView = CharBuffer.wrap(row);
+				}
+				row[rowLength++] = c;
+			}
+		}
+	}
+
+	private void scanFields() {
+		fieldCount = 0;
+		int start = 0;
+		while (start < rowLength && fieldCount < MAX_FIELDS) {
+			int end = start;
+			while (end < rowLength && row[end] != ',') {
+				end++;
+			}
+			int colon = start;
+			while (colon < end && row[colon] != ':') {
+				colon++;
+			}
+			// only the first colon separates key from value, so timestamps keep their own colons
+			if (colon < end) {
+				keyStart[fieldCount] = start;
+				keyEnd[fieldCount] = colon;
+				valueEnd[fieldCount] = end;
+				fieldCount++;
+			}
+			start = end + 1;
+		}
+	}
+
+	private int indexOf(String key) {
+		for (int i = 0; i < fieldCount; i++) {
+			int length = keyEnd[i] - keyStart[i];
+			if (length != key.length()) {
+				continue;
+			}
+			int j = 0;
+			while (j < length && row[keyStart[i] + j] == key.charAt(j)) {
+				j++;
+			}
+			if (j == length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int field(String key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			throw new IllegalStateException("Missing field \"" + key + "\" in record " + rowCount);
+		}
+		return i;
+	}
+
+	public boolean has(String key) {
+		return indexOf(key) >= 0;
+	}
+
+	public String getString(String key) {
+		int i = field(key);
+		return new String(row, keyEnd[i] + 1, valueEnd[i] - keyEnd[i] - 1);
+	}
+
+	public long getLong(String key) {
+		int i = field(key);
+		int position = keyEnd[i] + 1;
+		int end = valueEnd[i];
+		boolean negative = position < end && row[position] == '-';
+		if (negative) {
+			position++;
+		}
+		if (position == end) {
+			throw new NumberFormatException("Empty number for field \"" + key + "\" in record " + rowCount);
+		}
+		long value = 0;
+		for (; position < end; position++) {
+			int digit = row[position] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Invalid number for field \"" + key + "\" in record " + rowCount);
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	public int getInt(String key) {
+		return Math.toIntExact(getLong(key));
+	}
+
+	/**
+	 * Parses plain decimals of up to 15 digits such as {@code -12.50} in place, where dividing the exact mantissa by an
+	 * exact power of ten gives the correctly rounded double. Anything else falls back to Double.parseDouble.
+	 */
+	public double getDouble(String key) {
+		int i = field(key);
+		int position = keyEnd[i] + 1;
+		int end = valueEnd[i];
+		boolean negative = position < end && row[position] == '-';
+		if (negative) {
+			position++;
+		}
+		long mantissa = 0;
+		int scale = 0;
+		boolean seenPoint = false;
+		int digits = 0;
+		for (; position < end; position++) {
+			char c = row[position];
+			if (c == '.' && !seenPoint) {
+				seenPoint = true;
+			} else if (c >= '0' && c <= '9' && digits < 15) {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (seenPoint) {
+					scale++;
+				}
+			} else {
+				return Double.parseDouble(getString(key));
+			}
+		}
+		double value = mantissa / Math.pow(10, scale);
+		return negative ? -value : value;
+	}
+
+	/** Parses a pounds-and-pence amount straight into pence, see {@link Money#parse(CharSequence, int, int, boolean)} */
+	public long getPence(String key) {
+		int i = field(key);
+		return Money.parse(rowView, keyEnd[i] + 1, valueEnd[i], true);
+	}
+
+	public float getFloat(String key) {
+		return (float) getDouble(key);
+	}
+
+	public boolean getBoolean(String key) {
+		int i = field(key);
+		int start = keyEnd[i] + 1;
+		return valueEnd[i] - start == 4
+				&& (row[start] | 0x20) == 't' && (row[start + 1] | 0x20) == 'r'
+				&& (row[start + 2] | 0x20) == 'u' && (row[start + 3] | 0x20) == 'e';
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
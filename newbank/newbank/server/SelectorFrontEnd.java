@@ -0,0 +1,495 @@
+package newbank.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import static newbank.server.BinaryProtocol.MAX_FRAME_LENGTH;
+
+/**
+ * Serves the text menu and the {@link BinaryProtocol} from a single {@link Selector} thread, so an idle connection holds
+ * a small buffer and its session rather than a thread and its stack.
+ * <p>
+ * Once a connection has a whole request, a line of the text menu or a binary frame, its reads are paused and the
+ * requests it has sent so far are handled on a small worker pool, as password checks and transfers wait for the
+ * password pool and the journal. The answers are written back by the selector thread, which then resumes reading, so
+ * each connection has one batch of requests in flight at a time and they are answered in order. The text menu is a
+ * {@link NewBankClientHandler} fed one line at a time; a menu it shows after a pause is written whenever it comes.
+ */
+class SelectorFrontEnd implements Runnable {
+	private static final int INITIAL_BUFFER_SIZE = 512;
+	/** Longest line the text menu accepts, a client sending more is disconnected */
+	private static final int MAX_LINE_LENGTH = 8 * 1024;
+	private static final int WORKER_THREADS = Math.max(64, Runtime.getRuntime().availableProcessors() * 8);
+	private static final long IDLE_CHECK_MILLIS = 1000;
+	/** The text menu's charset, the platform default as for a connection served from a thread of its own */
+	private static final Charset TEXT_CHARSET = Charset.defaultCharset();
+	private static final byte[] AT_CAPACITY = "NewBank is at capacity, please try again later\n".getBytes(TEXT_CHARSET);
+	private static final byte[] INACTIVE = ("Session closed due to inactivity" + System.lineSeparator()).getBytes(TEXT_CHARSET);
+
+	/** What a listening channel serves, attached to its key */
+	private enum Protocol {
+		TEXT,
+		BINARY
+	}
+
+	private final ServerSocketChannel[] servers;
+	private final Selector selector;
+	private final Semaphore connectionPermits;
+	private final int idleTimeoutMillis;
+	private final ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "newbank-selector-worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** Connections whose requests the workers have answered, picked up by the selector thread */
+	private final ConcurrentLinkedQueue<Connection> answered = new ConcurrentLinkedQueue<>();
+	/** Connections that were sent something while no worker was busy with them, such as a delayed menu */
+	private final ConcurrentLinkedQueue<Connection> flushes = new ConcurrentLinkedQueue<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(MAX_FRAME_LENGTH);
+
+	/** A connection's state; its input belongs to the selector thread, or to a worker while it is busy */
+	private abstract class Connection {
+		final SocketChannel channel;
+		SelectionKey key;
+		/** Bytes read and not yet handled, from position 0 up to the buffer's position */
+		ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		/** Bytes waiting to be written, in order, from whichever thread sent them */
+		final ConcurrentLinkedQueue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+		/** Whether a worker has the connection; only written by the selector thread */
+		volatile boolean busy;
+		boolean failed;
+		long lastActiveMillis;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Whether the input starts with a whole request.
+		 *
+		 * @throws IOException if it starts with something that can never become one, as the stream cannot be resynchronised
+		 */
+		abstract boolean hasRequest() throws IOException;
+
+		/** Runs on a worker: handles every whole request in the input and sends the answers */
+		abstract void handleRequests() throws IOException;
+
+		/** Called on the selector thread once the connection is closed */
+		void closed() {
+		}
+
+		/** Drops the input up to offset, the requests handled, keeping anything after it for the next read */
+		void consume(int offset) {
+			input.flip().position(offset);
+			input.compact();
+			// give back a buffer grown for a large request once it has been handled
+			if (input.position() == 0 && input.capacity() > INITIAL_BUFFER_SIZE) {
+				input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+			}
+		}
+
+		/** Queues bytes to be written, from any thread */
+		void send(byte[] bytes) {
+			output.add(ByteBuffer.wrap(bytes));
+			// a busy connection is flushed once its worker is done, anything else is flushed by the selector thread now
+			if (!busy) {
+				flushes.add(this);
+				selector.wakeup();
+			}
+		}
+	}
+
+	private final class BinaryConnection extends Connection {
+		final BinaryRequestHandler requests = new BinaryRequestHandler();
+
+		BinaryConnection(SocketChannel channel) {
+			super(channel);
+		}
+
+		@Override
+		boolean hasRequest() throws IOException {
+			if (input.position() < 4) {
+				return false;
+			}
+			int length = input.getInt(0);
+			if (length < 5 || length > MAX_FRAME_LENGTH) {
+				throw new IOException("Invalid frame length " + length);
+			}
+			return input.position() >= 4 + length;
+		}
+
+		@Override
+		void handleRequests() throws IOException {
+			ByteArrayOutputStream responses = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(responses);
+			int offset = 0;
+			while (offset + 4 <= input.position()) {
+				int length = input.getInt(offset);
+				if (length < 5 || length > MAX_FRAME_LENGTH) {
+					throw new IOException("Invalid frame length " + length);
+				}
+				if (offset + 4 + length > input.position()) {
+					break;
+				}
+				byte[] frame = new byte[length];
+				input.get(offset + 4, frame);
+				requests.handle(frame, out);
+				offset += 4 + length;
+			}
+			consume(offset);
+			send(responses.toByteArray());
+		}
+	}
+
+	private final class TextConnection extends Connection {
+		final NewBankClientHandler dialogue = new NewBankClientHandler(new PrintWriter(new TextOutput(this), true));
+		/** The last line ended in '\r', so a '\n' starting the input is the rest of its line break */
+		boolean skipLineFeed;
+
+		TextConnection(SocketChannel channel) {
+			super(channel);
+		}
+
+		/** Offset of the first line break at or after start, or -1 if there is none yet */
+		private int lineEnd(int start) {
+			for (int i = start; i < input.position(); i++) {
+				byte b = input.get(i);
+				if (b == '\n' || b == '\r') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		private int lineStart() {
+			return skipLineFeed && input.position() > 0 && input.get(0) == '\n' ? 1 : 0;
+		}
+
+		@Override
+		boolean hasRequest() throws IOException {
+			if (lineEnd(lineStart()) >= 0) {
+				return true;
+			}
+			if (input.position() > MAX_LINE_LENGTH) {
+				throw new IOException("Line longer than " + MAX_LINE_LENGTH + " bytes");
+			}
+			return false;
+		}
+
+		@Override
+		void handleRequests() {
+			// lines end in "\n", "\r" or "\r\n", as for BufferedReader.readLine
+			int offset = lineStart();
+			int end;
+			while ((end = lineEnd(offset)) >= 0) {
+				String line = new String(input.array(), offset, end - offset, TEXT_CHARSET);
+				offset = end + 1;
+				skipLineFeed = input.get(end) == '\r';
+				if (skipLineFeed && offset < input.position()) {
+					if (input.get(offset) == '\n') {
+						offset++;
+					}
+					skipLineFeed = false;
+				}
+				dialogue.handleLine(line);
+			}
+			consume(offset);
+		}
+
+		@Override
+		void closed() {
+			dialogue.disconnected();
+		}
+	}
+
+	/** Collects what a text menu prints and sends it to the connection every time its PrintWriter flushes */
+	private static final class TextOutput extends Writer {
+		private final Connection connection;
+		private final StringBuilder pending = new StringBuilder();
+
+		TextOutput(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public synchronized void write(char[] chars, int offset, int length) {
+			pending.append(chars, offset, length);
+		}
+
+		@Override
+		public synchronized void write(String text, int offset, int length) {
+			pending.append(text, offset, offset + length);
+		}
+
+		@Override
+		public synchronized void flush() {
+			if (pending.length() == 0) {
+				return;
+			}
+			connection.send(pending.toString().getBytes(TEXT_CHARSET));
+			pending.setLength(0);
+			// a long list of offers or requests should not leave every idle session holding its buffer
+			if (pending.capacity() > INITIAL_BUFFER_SIZE) {
+				pending.trimToSize();
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * @param textServer   the text menu's channel
+	 * @param binaryServer the {@link BinaryProtocol}'s channel, or null to serve only the text menu
+	 */
+	SelectorFrontEnd(ServerSocketChannel textServer, ServerSocketChannel binaryServer, Semaphore connectionPermits,
+			int idleTimeoutMillis) throws IOException {
+		this.servers = binaryServer == null ? new ServerSocketChannel[] {textServer} : new ServerSocketChannel[] {textServer, binaryServer};
+		this.connectionPermits = connectionPermits;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		selector = Selector.open();
+		textServer.configureBlocking(false);
+		textServer.register(selector, SelectionKey.OP_ACCEPT, Protocol.TEXT);
+		if (binaryServer != null) {
+			binaryServer.configureBlocking(false);
+			binaryServer.register(selector, SelectionKey.OP_ACCEPT, Protocol.BINARY);
+		}
+	}
+
+	public void run() {
+		long nextIdleCheckMillis = System.currentTimeMillis() + IDLE_CHECK_MILLIS;
+		try {
+			while (servers[0].isOpen()) {
+				selector.select(IDLE_CHECK_MILLIS);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept((ServerSocketChannel) key.channel(), (Protocol) key.attachment());
+						continue;
+					}
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isWritable()) {
+							flush(connection);
+						} else if (key.isReadable()) {
+							read(connection);
+						}
+					} catch (IOException ex) {
+						close(connection);
+					}
+				}
+				Connection connection;
+				while ((connection = answered.poll()) != null) {
+					try {
+						respond(connection);
+					} catch (IOException ex) {
+						close(connection);
+					}
+				}
+				while ((connection = flushes.poll()) != null) {
+					try {
+						flush(connection);
+					} catch (IOException ex) {
+						close(connection);
+					}
+				}
+				long now = System.currentTimeMillis();
+				if (now >= nextIdleCheckMillis) {
+					closeIdle(now);
+					nextIdleCheckMillis = now + IDLE_CHECK_MILLIS;
+				}
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			workers.shutdown();
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection connection) {
+					close(connection);
+				}
+			}
+			try {
+				selector.close();
+				for (ServerSocketChannel server : servers) {
+					server.close();
+				}
+			} catch (IOException ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/** Registers every waiting connection, up to the connection limit shared by both protocols */
+	private void accept(ServerSocketChannel server, Protocol protocol) {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = server.accept();
+			} catch (IOException ex) {
+				// e.g. out of file descriptors; the connection stays queued and is tried again on the next select
+				ex.printStackTrace();
+				return;
+			}
+			if (channel == null) {
+				return;
+			}
+			if (!connectionPermits.tryAcquire()) {
+				rejectConnection(channel);
+				continue;
+			}
+			Connection connection = protocol == Protocol.TEXT ? new TextConnection(channel) : new BinaryConnection(channel);
+			try {
+				channel.configureBlocking(false);
+				connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+			} catch (IOException ex) {
+				connectionPermits.release();
+				rejectConnection(channel);
+				continue;
+			}
+			connection.lastActiveMillis = System.currentTimeMillis();
+			Metrics.sessionOpened();
+			if (connection instanceof TextConnection text) {
+				text.dialogue.start();
+			}
+		}
+	}
+
+	private void rejectConnection(SocketChannel channel) {
+		try (channel) {
+			channel.configureBlocking(false);
+			channel.write(ByteBuffer.wrap(AT_CAPACITY));
+		} catch (IOException ignored) {
+			// the client has gone already, so there is no one left to tell
+		}
+	}
+
+	private void read(Connection connection) throws IOException {
+		readBuffer.clear();
+		if (connection.channel.read(readBuffer) < 0) {
+			close(connection);
+			return;
+		}
+		readBuffer.flip();
+		connection.lastActiveMillis = System.currentTimeMillis();
+		if (connection.input.remaining() < readBuffer.remaining()) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(connection.input.capacity() * 2, connection.input.position() + readBuffer.remaining()));
+			connection.input.flip();
+			connection.input = grown.put(connection.input);
+		}
+		connection.input.put(readBuffer);
+		if (connection.hasRequest()) {
+			dispatch(connection);
+		}
+	}
+
+	private void dispatch(Connection connection) {
+		connection.busy = true;
+		connection.key.interestOps(0);
+		workers.execute(() -> handleRequests(connection));
+	}
+
+	/** Runs on a worker: answers the connection's requests and hands it back to the selector thread */
+	private void handleRequests(Connection connection) {
+		try {
+			connection.handleRequests();
+		} catch (IOException ex) {
+			connection.failed = true;
+		} catch (RuntimeException ex) {
+			ex.printStackTrace();
+			connection.failed = true;
+		}
+		answered.add(connection);
+		selector.wakeup();
+	}
+
+	private void respond(Connection connection) throws IOException {
+		connection.busy = false;
+		if (connection.failed) {
+			close(connection);
+			return;
+		}
+		flush(connection);
+	}
+
+	/** Writes what has been sent, then goes back to reading, or straight on to requests that arrived with the last ones */
+	private void flush(Connection connection) throws IOException {
+		if (!connection.key.isValid()) {
+			return;
+		}
+		while (!connection.output.isEmpty()) {
+			ByteBuffer[] buffers = connection.output.toArray(new ByteBuffer[0]);
+			connection.channel.write(buffers);
+			for (ByteBuffer buffer : buffers) {
+				if (buffer.hasRemaining()) {
+					connection.key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				connection.output.poll();
+			}
+		}
+		if (connection.busy) {
+			connection.key.interestOps(0);
+			return;
+		}
+		connection.lastActiveMillis = System.currentTimeMillis();
+		if (connection.hasRequest()) {
+			dispatch(connection);
+		} else {
+			connection.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void closeIdle(long now) {
+		if (idleTimeoutMillis <= 0) {
+			return;
+		}
+		for (SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof Connection connection && !connection.busy
+					&& now - connection.lastActiveMillis > idleTimeoutMillis) {
+				if (connection instanceof TextConnection) {
+					try {
+						connection.channel.write(ByteBuffer.wrap(INACTIVE));
+					} catch (IOException ignored) {
+						// it is being closed either way
+					}
+				}
+				close(connection);
+			}
+		}
+	}
+
+	private void close(Connection connection) {
+		if (!connection.channel.isOpen()) {
+			return;
+		}
+		connection.key.cancel();
+		try {
+			connection.channel.close();
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+		connection.closed();
+		Metrics.sessionClosed();
+		connectionPermits.release();
+	}
+}
@@ -0,0 +1,16 @@
+package newbank.server;
+
+/**
+ * How NewBankServer runs its client handlers, selected with the --mode startup option.
+ */
+public enum ServerMode {
+	/** One new platform thread per connection */
+	THREAD,
+	/**
+	 * Both the text menu and the binary protocol on one NIO selector thread and a small worker pool, so an idle session
+	 * holds its buffers and state but no thread. The mode for large numbers of mostly idle connections.
+	 */
+	SELECTOR,
+	/** One virtual thread per connection, available when running on Java 21 or later as an alternative to SELECTOR */
+	VIRTUAL
+}
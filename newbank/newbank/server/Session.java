@@ -0,0 +1,24 @@
+package newbank.server;
+
+/**
+ * Per-connection state. Each client handler owns one session, so concurrent clients never share a logged-in customer.
+ */
+public class Session {
+	private Customer customer;
+
+	public Customer getCustomer() {
+		return customer;
+	}
+
+	public void setCustomer(Customer customer) {
+		this.customer = customer;
+	}
+
+	public boolean isLoggedIn() {
+		return customer != null;
+	}
+
+	public void logout() {
+		customer = null;
+	}
+}
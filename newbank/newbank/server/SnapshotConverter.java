@@ -0,0 +1,21 @@
+package newbank.server;
+
+import java.io.File;
+
+/**
+ * One-time conversion of a data directory from CSV tables to {@link BinarySnapshot}s, run while the server is stopped:
+ * {@code java -cp <classes> newbank.server.SnapshotConverter [data directory]}, by default {@code newbank}. The
+ * journal, account store and sequences are left as they are, and so are the CSV files, which stay as a backup.
+ */
+public class SnapshotConverter {
+	public static void main(String[] args) throws Exception {
+		File dataDirectory = new File(args.length > 0 ? args[0] : "newbank");
+		DatabaseHandler databaseHandler = new DatabaseHandler(dataDirectory);
+		if (databaseHandler.isBinaryFormat()) {
+			System.out.println(dataDirectory + " is already converted");
+			return;
+		}
+		databaseHandler.convertToBinary();
+		System.out.println("Converted " + dataDirectory + "; the bank now loads its tables from the .bin files");
+	}
+}
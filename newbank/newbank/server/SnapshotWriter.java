@@ -0,0 +1,188 @@
+package newbank.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Replaces a record file as a whole or not at all.
+ * <p>
+ * Records are encoded into a direct buffer and written to {@code <file>.tmp} through a FileChannel, after a header line
+ * {@code #snapshot:1}. {@link #commit()} appends a trailer line {@code #crc32c:<checksum>,rows:<count>} covering
+ * everything before it, forces the temp file, renames it over the live file atomically and forces the directory. A
+ * crash at any point leaves either the old file or the new one, and {@link #verify(File)} detects a file damaged or
+ * truncated afterwards. Closing without committing discards the temp file.
+ */
+public class SnapshotWriter implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final String HEADER = "#snapshot:1\n";
+	private static final String TRAILER = "#crc32c:";
+	private static final String ROWS = ",rows:";
+
+	private final Path target;
+	private final Path temp;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+	private final CRC32C crc = new CRC32C();
+	private long rows;
+	private boolean committed;
+
+	public SnapshotWriter(File file) throws IOException {
+		target = file.toPath();
+		temp = target.resolveSibling(target.getFileName() + ".tmp");
+		channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		buffer.put(HEADER.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/** Writes one record as a line */
+	public void write(CharSequence record) throws IOException {
+		CharBuffer chars = CharBuffer.wrap(record);
+		while (true) {
+			CoderResult result = encoder.encode(chars, buffer, true);
+			if (result.isOverflow()) {
+				drain();
+			} else if (result.isError()) {
+				result.throwException();
+			} else {
+				break;
+			}
+		}
+		encoder.reset();
+		if (!buffer.hasRemaining()) {
+			drain();
+		}
+		buffer.put((byte) '\n');
+		rows++;
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		crc.update(buffer.duplicate());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/** Writes the checksum trailer and atomically replaces the target file with everything written */
+	public void commit() throws IOException {
+		drain();
+		String trailer = TRAILER + String.format("%08x", crc.getValue()) + ROWS + rows + "\n";
+		ByteBuffer trailerBytes = ByteBuffer.wrap(trailer.getBytes(StandardCharsets.US_ASCII));
+		while (trailerBytes.hasRemaining()) {
+			channel.write(trailerBytes);
+		}
+		channel.force(true);
+		channel.close();
+		committed = true;
+		replace(temp, target);
+	}
+
+	/** Renames a fully written and forced temp file over the target, and makes the rename durable */
+	static void replace(Path temp, Path target) throws IOException {
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		// the rename itself is only durable once the directory entry is on disk
+		try (FileChannel directory = FileChannel.open(target.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!committed) {
+			channel.close();
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Checks a record file against its checksum trailer. Files written before snapshots had a header line, and missing
+	 * files, are accepted as they are; a file with the header must end in a trailer matching its checksum and row count.
+	 *
+	 * @throws IOException if the file is truncated or does not match its trailer
+	 */
+	public static void verify(File file) throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer head = ByteBuffer.allocate(HEADER.length());
+			while (head.hasRemaining()) {
+				if (channel.read(head, head.position()) < 0) {
+					break;
+				}
+			}
+			String headText = new String(head.array(), 0, head.position(), StandardCharsets.US_ASCII);
+			if (!headText.equals(HEADER)) {
+				// a snapshot cut off inside its header line is not an older file, which starts with a record
+				if (!headText.isEmpty() && HEADER.startsWith(headText)) {
+					throw new IOException("No checksum trailer at the end of " + file + ", the snapshot is truncated");
+				}
+				return;
+			}
+			int tailLength = (int) Math.min(size, 128);
+			ByteBuffer tail = ByteBuffer.allocate(tailLength);
+			while (tail.hasRemaining()) {
+				if (channel.read(tail, size - tailLength + tail.position()) < 0) {
+					break;
+				}
+			}
+			String tailText = new String(tail.array(), StandardCharsets.US_ASCII);
+			int trailerStart = tailText.lastIndexOf('\n', tailText.length() - 2) + 1;
+			int rowsStart = tailText.indexOf(ROWS, trailerStart);
+			if (!tailText.startsWith(TRAILER, trailerStart) || rowsStart < 0 || !tailText.endsWith("\n")) {
+				throw new IOException("No checksum trailer at the end of " + file + ", the snapshot is truncated");
+			}
+			int checksumStart = trailerStart + TRAILER.length();
+			long expected;
+			long expectedRows;
+			try {
+				expected = Long.parseLong(tailText.substring(checksumStart, checksumStart + 8), 16);
+				expectedRows = Long.parseLong(tailText.substring(rowsStart + ROWS.length(), tailText.length() - 1));
+			} catch (NumberFormatException | IndexOutOfBoundsException ex) {
+				throw new IOException("Malformed checksum trailer in " + file, ex);
+			}
+			long contentLength = size - tailLength + trailerStart;
+			CRC32C crc = new CRC32C();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			long position = 0;
+			long lines = 0;
+			while (position < contentLength) {
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, contentLength - position));
+				int read = channel.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				buffer.flip();
+				for (int i = 0; i < read; i++) {
+					if (buffer.get(i) == '\n') {
+						lines++;
+					}
+				}
+				crc.update(buffer);
+				position += read;
+			}
+			if (crc.getValue() != expected) {
+				throw new IOException("Checksum mismatch in " + file + ", the snapshot is damaged");
+			}
+			// every line before the trailer is a record, apart from the header
+			if (lines - 1 != expectedRows) {
+				throw new IOException("Found " + (lines - 1) + " rows in " + file + " where its trailer has " + expectedRows);
+			}
+		}
+	}
+}
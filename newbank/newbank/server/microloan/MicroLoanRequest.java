@@ -1,11 +1,12 @@
 package newbank.server.microloan;
 
 import newbank.server.Customer;
+import newbank.server.Money;
 
 public class MicroLoanRequest {
     private int id;
     private Customer customer;
-    private  float amount;
+    private  long amount;
     private  float interestRate;
     private  int customerId;
 
@@ -17,11 +18,12 @@ public class MicroLoanRequest {
         this.customer = customer;
     }
 
-    public float getAmount() {
+    /** Amount in pence */
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(float amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
@@ -53,7 +55,7 @@ public class MicroLoanRequest {
     public String toString() {
         return "{" +
                 "id=" + id +
-                ", amount=" + amount +
+                ", amount=" + Money.format(amount) +
                 ", interestRate=" + interestRate +
                 ", customerId=" + customerId +
                 '}';
@@ -1,12 +1,13 @@
 package newbank.server.microloan;
 
 import newbank.server.Customer;
+import newbank.server.Money;
 
 public class Microloan {
 
     private Customer loaner;
     private Customer taker;
-    private float amount;
+    private long amount;
     private float interest;
     private String dateOfExpiry;
     private  boolean repaid;
@@ -27,11 +28,12 @@ public class Microloan {
         this.taker = taker;
     }
 
-    public float getAmount() {
+    /** Amount in pence */
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(float amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
@@ -63,7 +65,7 @@ public class Microloan {
     @Override
     public String toString() {
         return "Microloan{" +
-                " amount=" + amount +
+                " amount=" + Money.format(amount) +
                 ", interest=" + interest +
                 ", dateOfExpiry='" + dateOfExpiry + '\'' +
                 ", repaid=" + repaid +
@@ -1,18 +1,47 @@
 package newbank.server.microloan;
 
+import newbank.server.Money;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class MicroloanManagement {
 
     private List<MicroLoanRequest> microLoanRequestList;
     private List<Microloan> microloanList;
+    // offer book: loaded once, looked up by id and browsed cheapest first
+    private final ConcurrentHashMap<Integer, MicroloanOffer> offersById = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<MicroloanOffer> offersByInterestRate = new ConcurrentSkipListSet<>(
+            Comparator.comparingDouble(MicroloanOffer::getInterestRate).thenComparingInt(MicroloanOffer::getId));
+    private final MicroloanMatchingEngine matchingEngine = new MicroloanMatchingEngine();
+
+    /** Moves the money for one fill of a matched request */
+    public interface Settlement {
+        /** Returns the resulting microloan, or null if the lender cannot fund the amount */
+        Microloan settle(MicroloanOffer offer, MicroLoanRequest request, long amount);
+    }
 
     public List<MicroLoanRequest> getMicroLoanRequestList() {
         return microLoanRequestList;
     }
 
     public void setMicroLoanRequestList(List<MicroLoanRequest> microLoanRequestList) {
-        this.microLoanRequestList = microLoanRequestList;
+        this.microLoanRequestList = new CopyOnWriteArrayList<>(microLoanRequestList);
+    }
+
+    /** Removes a request that is being accepted by hand, returning false if it has already been taken */
+    public boolean removeMicroLoanRequest(MicroLoanRequest request) {
+        return microLoanRequestList.remove(request);
+    }
+
+    /** Puts back a request whose hand acceptance fell through */
+    public void restoreMicroLoanRequest(MicroLoanRequest request) {
+        microLoanRequestList.add(request);
     }
 
     public List<Microloan> getMicroloanList() {
@@ -20,6 +49,159 @@ public class MicroloanManagement {
     }
 
     public void setMicroloanList(List<Microloan> microloanList) {
-        this.microloanList = microloanList;
+        this.microloanList = new CopyOnWriteArrayList<>(microloanList);
+    }
+
+    /**
+     * Loads the offer book. A row the book cannot hold, such as one edited by hand to a rate above 100%, is skipped with
+     * a message rather than stopping the bank from starting, and is gone from the file the next time the book is saved.
+     */
+    public void setMicroloanOffers(Collection<MicroloanOffer> offers) {
+        offersById.clear();
+        offersByInterestRate.clear();
+        for (MicroloanOffer offer : offers) {
+            String problem = checkOffer(offer);
+            if (problem != null) {
+                System.out.println(String.format("Skipping microloan offer %d: %s", offer.getId(), problem));
+                continue;
+            }
+            addOffer(offer);
+        }
+    }
+
+    /** Whether a rate is one the offer book can match, from 0 up to 1 (100%) */
+    public static boolean isValidInterestRate(float interestRate) {
+        return interestRate >= 0 && interestRate <= 1;
+    }
+
+    /** Describes why an offer cannot go on the book, or returns null if it can */
+    public static String checkOffer(MicroloanOffer offer) {
+        if (!isValidInterestRate(offer.getInterestRate())) {
+            return "interest rate " + offer.getInterestRate() + " is not between 0 and 1";
+        }
+        if (offer.getAmount() <= 0) {
+            return "amount " + Money.format(offer.getAmount()) + " is not above zero";
+        }
+        return null;
+    }
+
+    /**
+     * Puts an offer on the book, replacing any offer with the same id.
+     *
+     * @throws IllegalArgumentException if the offer fails {@link #checkOffer}
+     */
+    public void addOffer(MicroloanOffer offer) {
+        String problem = checkOffer(offer);
+        if (problem != null) {
+            throw new IllegalArgumentException("Microloan offer " + offer.getId() + ": " + problem);
+        }
+        MicroloanOffer previous = offersById.put(offer.getId(), offer);
+        if (previous != null) {
+            offersByInterestRate.remove(previous);
+            matchingEngine.cancelOffer(previous.getId());
+        }
+        offersByInterestRate.add(offer);
+        matchingEngine.restOffer(offer.getId(), offer.getCustomerId(), offer.getAmount(), toBasisPoints(offer.getInterestRate()));
+    }
+
+    public MicroloanOffer getOffer(int id) {
+        return offersById.get(id);
+    }
+
+    /** Removes the offer from the book, returning false if another customer has already taken it */
+    public boolean takeOffer(MicroloanOffer offer) {
+        if (!offersById.remove(offer.getId(), offer)) {
+            return false;
+        }
+        offersByInterestRate.remove(offer);
+        matchingEngine.cancelOffer(offer.getId());
+        return true;
+    }
+
+    /** One fill taken off the offer book, waiting to be settled */
+    private static final class Fill {
+        final MicroloanOffer offer;
+        final long amount;
+
+        Fill(MicroloanOffer offer, long amount) {
+            this.offer = offer;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * Matches a new request against the offer book, settling every fill, and leaves any unfilled remainder on the book
+     * as an open request. On return the request's amount is that remainder, 0 if it was filled completely.
+     * <p>
+     * Fills are taken off the book under its lock but settled after releasing it, so other requests are not held up by
+     * transfers. An offer whose lender cannot fund its fill is withdrawn, and the amount it would have covered is
+     * matched again against the rest of the book.
+     */
+    public List<Microloan> submitRequest(MicroLoanRequest request, Settlement settlement) {
+        List<Microloan> microloans = new ArrayList<>();
+        int rate = toBasisPoints(request.getInterestRate());
+        long remaining = request.getAmount();
+        while (remaining > 0) {
+            List<Fill> fills = new ArrayList<>();
+            synchronized (matchingEngine) {
+                remaining = matchingEngine.submitRequest(request.getCustomerId(), remaining, rate,
+                        (offerId, lenderId, amountPence, rateBasisPoints) -> fills.add(new Fill(offersById.get(offerId), amountPence)));
+                // bring the offer book in line with what the engine has left of each matched offer
+                for (Fill fill : fills) {
+                    if (fill.offer == null) {
+                        continue;
+                    }
+                    long offerRemaining = matchingEngine.offerRemaining(fill.offer.getId());
+                    if (offerRemaining == 0) {
+                        offersById.remove(fill.offer.getId(), fill.offer);
+                        offersByInterestRate.remove(fill.offer);
+                    } else {
+                        fill.offer.setAmount(offerRemaining);
+                    }
+                }
+            }
+            boolean unsettled = false;
+            for (Fill fill : fills) {
+                // an offer missing here is being taken by hand, which cancels what is left of it in the engine
+                Microloan microloan = fill.offer == null ? null : settlement.settle(fill.offer, request, fill.amount);
+                if (microloan == null) {
+                    if (fill.offer != null) {
+                        withdrawOffer(fill.offer);
+                    }
+                    remaining += fill.amount;
+                    unsettled = true;
+                } else {
+                    microloans.add(microloan);
+                }
+            }
+            // every pass going round again has shrunk or withdrawn an offer, so this ends
+            if (!unsettled) {
+                break;
+            }
+        }
+        microloanList.addAll(microloans);
+        request.setAmount(remaining);
+        if (remaining > 0) {
+            microLoanRequestList.add(request);
+        }
+        return microloans;
+    }
+
+    private void withdrawOffer(MicroloanOffer offer) {
+        synchronized (matchingEngine) {
+            if (offersById.remove(offer.getId(), offer)) {
+                offersByInterestRate.remove(offer);
+                matchingEngine.cancelOffer(offer.getId());
+            }
+        }
+    }
+
+    private static int toBasisPoints(float interestRate) {
+        return (int) Math.round(interestRate * 10_000d);
+    }
+
+    /** Open offers, lowest interest rate first */
+    public Collection<MicroloanOffer> getOffersByInterestRate() {
+        return offersByInterestRate;
     }
 }
@@ -0,0 +1,141 @@
+package newbank.server.microloan;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Price-time priority book of microloan offers.
+ * <p>
+ * Offers rest in price levels indexed directly by interest rate in basis points, and within a level in arrival order. A
+ * new request is matched against the cheapest offers at or below the rate it is willing to pay, filling partially where
+ * amounts differ. Fills are taken off the book as they are made and handed to a listener; the money is moved by the
+ * caller afterwards, outside the book's lock, and an offer whose lender cannot fund its fill is withdrawn with
+ * {@link #cancelOffer(int)}. Open requests are kept by {@link MicroloanManagement}, not here. A customer is never
+ * matched against their own offers.
+ * <p>
+ * Amounts are in pence and rates in basis points, so matching works on primitives only. All methods are synchronized:
+ * matching is sequential, like a single exchange matching thread.
+ */
+public class MicroloanMatchingEngine {
+    /** Highest rate the book accepts, 100% */
+    public static final int MAX_RATE_BASIS_POINTS = 10_000;
+
+    /** Called for every fill, which has already been taken off the offer */
+    public interface FillListener {
+        void onFill(int offerId, int lenderId, long amountPence, int rateBasisPoints);
+    }
+
+    private static final class Order {
+        final int id;
+        final int customerId;
+        final int rate;
+        long remaining;
+
+        Order(int id, int customerId, int rate, long remaining) {
+            this.id = id;
+            this.customerId = customerId;
+            this.rate = rate;
+            this.remaining = remaining;
+        }
+    }
+
+    /** The FIFO queue of one price level, wrapped so the levels can be a plain array */
+    private static final class Level {
+        final ArrayDeque<Order> orders = new ArrayDeque<>();
+    }
+
+    /** Offers in an array of levels indexed by rate, plus an id index for cancels */
+    private final Level[] levels = new Level[MAX_RATE_BASIS_POINTS + 1];
+    private final HashMap<Integer, Order> byId = new HashMap<>();
+    private int lowest = MAX_RATE_BASIS_POINTS + 1;
+    private int highest = -1;
+
+    /** Moves the lowest/highest markers past levels that have emptied */
+    private void trim() {
+        while (lowest <= highest && isEmpty(lowest)) {
+            lowest++;
+        }
+        while (highest >= lowest && isEmpty(highest)) {
+            highest--;
+        }
+        if (lowest > highest) {
+            lowest = MAX_RATE_BASIS_POINTS + 1;
+            highest = -1;
+        }
+    }
+
+    private boolean isEmpty(int rate) {
+        return levels[rate] == null || levels[rate].orders.isEmpty();
+    }
+
+    private static int checkRate(int rateBasisPoints) {
+        if (rateBasisPoints < 0 || rateBasisPoints > MAX_RATE_BASIS_POINTS) {
+            throw new IllegalArgumentException("Interest rate must be between 0 and " + MAX_RATE_BASIS_POINTS + " basis points");
+        }
+        return rateBasisPoints;
+    }
+
+    /** Adds an offer to the book without matching, used when loading the book and putting offers back */
+    public synchronized void restOffer(int offerId, int lenderId, long amountPence, int rateBasisPoints) {
+        Order offer = new Order(offerId, lenderId, checkRate(rateBasisPoints), amountPence);
+        Level level = levels[offer.rate];
+        if (level == null) {
+            level = new Level();
+            levels[offer.rate] = level;
+        }
+        level.orders.addLast(offer);
+        byId.put(offer.id, offer);
+        lowest = Math.min(lowest, offer.rate);
+        highest = Math.max(highest, offer.rate);
+    }
+
+    /**
+     * Matches a request against resting offers, cheapest first, taking each fill off its offer. The request itself does
+     * not rest in the book.
+     *
+     * @return the amount left unfilled
+     */
+    public synchronized long submitRequest(int borrowerId, long amountPence, int maxRateBasisPoints, FillListener listener) {
+        int maxRate = checkRate(maxRateBasisPoints);
+        long remaining = amountPence;
+        for (int rate = lowest; rate <= Math.min(highest, maxRate) && remaining > 0; rate++) {
+            if (levels[rate] == null) {
+                continue;
+            }
+            Iterator<Order> resting = levels[rate].orders.iterator();
+            while (resting.hasNext() && remaining > 0) {
+                Order offer = resting.next();
+                if (offer.customerId == borrowerId) {
+                    continue;
+                }
+                long amount = Math.min(offer.remaining, remaining);
+                offer.remaining -= amount;
+                remaining -= amount;
+                if (offer.remaining == 0) {
+                    resting.remove();
+                    byId.remove(offer.id);
+                }
+                listener.onFill(offer.id, offer.customerId, amount, rate);
+            }
+        }
+        trim();
+        return remaining;
+    }
+
+    public synchronized boolean cancelOffer(int offerId) {
+        Order offer = byId.remove(offerId);
+        if (offer == null) {
+            return false;
+        }
+        levels[offer.rate].orders.remove(offer);
+        trim();
+        return true;
+    }
+
+    /** Remaining amount of a resting offer, or 0 if it is no longer in the book */
+    public synchronized long offerRemaining(int offerId) {
+        Order offer = byId.get(offerId);
+        return offer == null ? 0 : offer.remaining;
+    }
+}
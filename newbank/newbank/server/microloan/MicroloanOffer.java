@@ -1,10 +1,12 @@
 package newbank.server.microloan;
 
+import newbank.server.Money;
+
 public class MicroloanOffer {
     private  int id;
     private  int customerId;
     private float interestRate;
-    private float amount;
+    private long amount;
 
     public int getCustomerId() {
         return customerId;
@@ -22,11 +24,12 @@ public class MicroloanOffer {
         this.interestRate = interestRate;
     }
 
-    public float getAmount() {
+    /** Amount in pence */
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(float amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
@@ -43,7 +46,7 @@ public class MicroloanOffer {
         return "{" +
                 "id=" + id +
                 ", interestRate=" + interestRate +
-                ", amount=" + amount +
+                ", amount=" + Money.format(amount) +
                 '}';
     }
 }
@@ -0,0 +1,143 @@
+package newbank.server.validation;
+
+/**
+ * A length range plus the character classes a value may contain and must contain, checked in a single pass.
+ * <p>
+ * Every ASCII character's classes are looked up in a table built once, so checking a value is one loop over its
+ * characters OR-ing their class bits together, with no regex and no exceptions. The result names the first rule that
+ * failed, or is null if the value is valid.
+ */
+public final class CharacterPolicy {
+	public static final int DIGIT = 1;
+	public static final int LOWERCASE = 1 << 1;
+	public static final int UPPERCASE = 1 << 2;
+	/** Alphabetic characters outside ASCII */
+	public static final int OTHER_LETTER = 1 << 3;
+	/** Digits outside ASCII */
+	public static final int OTHER_DIGIT = 1 << 4;
+	/** The special characters a password needs one of: @#$%^&+=!? */
+	public static final int SPECIAL = 1 << 5;
+	/** Any other character */
+	public static final int SYMBOL = 1 << 6;
+	/** ASCII whitespace and line terminators, the characters the old password regex rejected */
+	public static final int WHITESPACE = 1 << 7;
+
+	public static final int ALPHANUMERIC = DIGIT | LOWERCASE | UPPERCASE | OTHER_LETTER | OTHER_DIGIT;
+	public static final int ANY_BUT_WHITESPACE = ALPHANUMERIC | SPECIAL | SYMBOL;
+
+	private static final byte[] ASCII_CLASSES = new byte[128];
+
+	static {
+		for (char c = 0; c < 128; c++) {
+			int classes;
+			if (c >= '0' && c <= '9') {
+				classes = DIGIT;
+			} else if (c >= 'a' && c <= 'z') {
+				classes = LOWERCASE;
+			} else if (c >= 'A' && c <= 'Z') {
+				classes = UPPERCASE;
+			} else if ("@#$%^&+=!?".indexOf(c) >= 0) {
+				classes = SPECIAL;
+			} else if (" \t\n\u000B\f\r".indexOf(c) >= 0) {
+				classes = WHITESPACE;
+			} else {
+				classes = SYMBOL;
+			}
+			ASCII_CLASSES[c] = (byte) classes;
+		}
+	}
+
+	private final int minLength;
+	private final int maxLength;
+	private final int allowed;
+	private final int required;
+
+	/**
+	 * @param allowed  the classes every character must belong to
+	 * @param required the classes at least one character must belong to, checked as digit, lowercase, uppercase, special
+	 */
+	public CharacterPolicy(int minLength, int maxLength, int allowed, int required) {
+		this.minLength = minLength;
+		this.maxLength = maxLength;
+		this.allowed = allowed;
+		this.required = required;
+	}
+
+	static int classOf(char c) {
+		if (c < 128) {
+			return ASCII_CLASSES[c];
+		}
+		if (Character.isAlphabetic(c)) {
+			return OTHER_LETTER;
+		}
+		if (Character.isDigit(c)) {
+			return OTHER_DIGIT;
+		}
+		if (c == '\u0085' || c == '\u2028' || c == '\u2029') {
+			return WHITESPACE;
+		}
+		return SYMBOL;
+	}
+
+	/**
+	 * Returns the first rule the value breaks, or null if it satisfies the policy. A character outside the Basic
+	 * Multilingual Plane, such as an emoji, is a {@link #SYMBOL} counting once towards the length where symbols are
+	 * allowed, as it did in the old password regex, and two invalid characters elsewhere, as in the old name checks.
+	 */
+	public Violation check(CharSequence value) {
+		int length = value.length();
+		if (length < minLength) {
+			return Violation.TOO_SHORT;
+		}
+		boolean pairs = (allowed & SYMBOL) != 0;
+		if (length > (pairs ? 2 * maxLength : maxLength)) {
+			return Violation.TOO_LONG;
+		}
+		int characters = length;
+		int seen = 0;
+		boolean invalid = false;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (pairs && Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				i++;
+				characters--;
+				seen |= SYMBOL;
+				continue;
+			}
+			int classes = classOf(c);
+			invalid |= (classes & allowed) == 0;
+			seen |= classes;
+		}
+		if (characters < minLength) {
+			return Violation.TOO_SHORT;
+		}
+		if (characters > maxLength) {
+			return Violation.TOO_LONG;
+		}
+		if (invalid) {
+			return Violation.INVALID_CHARACTER;
+		}
+		int missing = required & ~seen;
+		if (missing == 0) {
+			return null;
+		}
+		if ((missing & DIGIT) != 0) {
+			return Violation.MISSING_DIGIT;
+		}
+		if ((missing & LOWERCASE) != 0) {
+			return Violation.MISSING_LOWERCASE;
+		}
+		if ((missing & UPPERCASE) != 0) {
+			return Violation.MISSING_UPPERCASE;
+		}
+		return Violation.MISSING_SPECIAL;
+	}
+
+	public int getMinLength() {
+		return minLength;
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+}
@@ -0,0 +1,33 @@
+package newbank.server.validation;
+
+import static newbank.server.validation.CharacterPolicy.ALPHANUMERIC;
+import static newbank.server.validation.CharacterPolicy.ANY_BUT_WHITESPACE;
+import static newbank.server.validation.CharacterPolicy.DIGIT;
+import static newbank.server.validation.CharacterPolicy.LOWERCASE;
+import static newbank.server.validation.CharacterPolicy.SPECIAL;
+import static newbank.server.validation.CharacterPolicy.UPPERCASE;
+
+/** The policies for customer input, built once at class load */
+public final class Validators {
+	/** 5-25 letters or digits */
+	public static final CharacterPolicy USERNAME = new CharacterPolicy(5, 25, ALPHANUMERIC, 0);
+	/** 3-15 letters or digits */
+	public static final CharacterPolicy ACCOUNT_NAME = new CharacterPolicy(3, 15, ALPHANUMERIC, 0);
+	/** 8-25 characters without whitespace, with at least one digit, lowercase letter, uppercase letter and special character */
+	public static final CharacterPolicy PASSWORD = new CharacterPolicy(8, 25, ANY_BUT_WHITESPACE, DIGIT | LOWERCASE | UPPERCASE | SPECIAL);
+
+	private Validators() {
+	}
+
+	public static String describePasswordViolation(Violation violation) {
+		return switch (violation) {
+			case TOO_SHORT, TOO_LONG -> String.format("Password must be between %d-%d characters long",
+					PASSWORD.getMinLength(), PASSWORD.getMaxLength());
+			case INVALID_CHARACTER -> "Password must not contain spaces";
+			case MISSING_DIGIT -> "Password must include at least one number";
+			case MISSING_LOWERCASE -> "Password must include at least one lowercase letter";
+			case MISSING_UPPERCASE -> "Password must include at least one uppercase letter";
+			case MISSING_SPECIAL -> "Password must include at least one of the special characters @#$%^&+=!?";
+		};
+	}
+}
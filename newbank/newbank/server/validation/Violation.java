@@ -0,0 +1,12 @@
+package newbank.server.validation;
+
+/** The rule a value broke, checked in this order */
+public enum Violation {
+	TOO_SHORT,
+	TOO_LONG,
+	INVALID_CHARACTER,
+	MISSING_DIGIT,
+	MISSING_LOWERCASE,
+	MISSING_UPPERCASE,
+	MISSING_SPECIAL
+}
@@ -0,0 +1,124 @@
+package newbank.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static newbank.server.Checks.*;
+
+/**
+ * Checks of {@link NewBank#transferBatch}: a batch is applied entirely or not at all, each item sees the balances left
+ * by the items before it, an item paying an account into itself creates no money, and what was applied survives a
+ * restart through the journal.
+ * <p>
+ * Runs on the JDK alone, see {@link Checks}: {@code java -cp <classes> newbank.server.BatchTransferTest}.
+ */
+public class BatchTransferTest {
+	private File directory;
+	private NewBank bank;
+	private Account aliceMain;
+	private Account aliceSavings;
+	private Account bobMain;
+
+	public static void main(String[] args) {
+		System.setProperty(Pbkdf2CredentialHasher.ITERATIONS_PROPERTY, "1000");
+		BatchTransferTest test = new BatchTransferTest();
+		run("appliesEveryItem", test::appliesEveryItem);
+		run("itemsSeeEarlierItems", test::itemsSeeEarlierItems);
+		run("unfundedItemRejectsWholeBatch", test::unfundedItemRejectsWholeBatch);
+		run("sameAccountItemCreatesNoMoney", test::sameAccountItemCreatesNoMoney);
+		run("nonPositiveAmountRejectsWholeBatch", test::nonPositiveAmountRejectsWholeBatch);
+		exit();
+	}
+
+	/** Opens a bank in a fresh directory holding Alice with main 100.00 and savings 50.00, and Bob with main 10.00 */
+	private void openBank() throws Exception {
+		directory = Files.createTempDirectory("newbank-batch").toFile();
+		directory.deleteOnExit();
+		for (String name : new String[] {"customer.csv", "account.csv", "microloan.csv", "microloan_offer.csv", "microloan_request.csv"}) {
+			Files.write(new File(directory, name).toPath(), new byte[0]);
+		}
+		bank = new NewBank(new DatabaseHandler(directory));
+		Session alice = new Session();
+		bank.addCustomer(alice, "Alice1", "Passw0rd!", 10_000);
+		bank.addAccount(alice, "savings", 5_000);
+		Session bob = new Session();
+		bank.addCustomer(bob, "Bobby1", "Passw0rd!", 1_000);
+		aliceMain = alice.getCustomer().getAccountByName("main");
+		aliceSavings = alice.getCustomer().getAccountByName("savings");
+		bobMain = bob.getCustomer().getAccountByName("main");
+	}
+
+	/** Closes the bank and opens it again from its files and journal, checking the three balances */
+	private void checkBalancesAfterRestart(long aliceMainBalance, long aliceSavingsBalance, long bobMainBalance) throws IOException {
+		checkBalances(aliceMainBalance, aliceSavingsBalance, bobMainBalance);
+		int[] ids = {aliceMain.getId(), aliceSavings.getId(), bobMain.getId()};
+		bank.close();
+		bank = new NewBank(new DatabaseHandler(directory));
+		aliceMain = bank.getAccounts().get(ids[0]);
+		aliceSavings = bank.getAccounts().get(ids[1]);
+		bobMain = bank.getAccounts().get(ids[2]);
+		checkBalances(aliceMainBalance, aliceSavingsBalance, bobMainBalance);
+		bank.close();
+	}
+
+	private void checkBalances(long aliceMainBalance, long aliceSavingsBalance, long bobMainBalance) {
+		checkEquals(aliceMainBalance, aliceMain.getBalance());
+		checkEquals(aliceSavingsBalance, aliceSavings.getBalance());
+		checkEquals(bobMainBalance, bobMain.getBalance());
+	}
+
+	private static void checkResults(long[] expected, long[] actual) {
+		checkEquals(Arrays.toString(expected), Arrays.toString(actual));
+	}
+
+	void appliesEveryItem() throws Exception {
+		openBank();
+		long[] results = bank.transferBatch(new Account[] {aliceMain, aliceSavings}, new Account[] {bobMain, bobMain},
+				new long[] {2_500, 1_000});
+		checkResults(new long[] {7_500, 4_000}, results);
+		checkBalancesAfterRestart(7_500, 4_000, 4_500);
+	}
+
+	void itemsSeeEarlierItems() throws Exception {
+		openBank();
+		// Bob can only pay on 50.00 because Alice's 45.00 reaches him first
+		long[] results = bank.transferBatch(new Account[] {aliceMain, bobMain, aliceMain}, new Account[] {bobMain, aliceSavings, bobMain},
+				new long[] {4_500, 5_000, 1_000});
+		checkResults(new long[] {5_500, 500, 4_500}, results);
+		checkBalancesAfterRestart(4_500, 10_000, 1_500);
+	}
+
+	void unfundedItemRejectsWholeBatch() throws Exception {
+		openBank();
+		long[] results = bank.transferBatch(new Account[] {aliceMain, bobMain, aliceSavings}, new Account[] {bobMain, aliceMain, bobMain},
+				new long[] {1_000, 1_500, 5_001});
+		// only the item that could not be funded is marked, the others report what they would have left
+		checkResults(new long[] {9_000, 500, -1}, results);
+		checkBalancesAfterRestart(10_000, 5_000, 1_000);
+	}
+
+	void sameAccountItemCreatesNoMoney() throws Exception {
+		openBank();
+		long[] results = bank.transferBatch(new Account[] {aliceMain, aliceMain, aliceMain}, new Account[] {aliceMain, bobMain, aliceMain},
+				new long[] {10_000, 4_000, 6_000});
+		checkResults(new long[] {10_000, 6_000, 6_000}, results);
+		checkBalancesAfterRestart(6_000, 5_000, 5_000);
+
+		openBank();
+		// paying itself more than it holds is no more fundable than any other transfer
+		results = bank.transferBatch(new Account[] {bobMain}, new Account[] {bobMain}, new long[] {1_001});
+		checkResults(new long[] {-1}, results);
+		checkBalancesAfterRestart(10_000, 5_000, 1_000);
+	}
+
+	void nonPositiveAmountRejectsWholeBatch() throws Exception {
+		openBank();
+		for (long amount : new long[] {0, -100}) {
+			checkThrows(IllegalArgumentException.class, () -> bank.transferBatch(new Account[] {aliceMain, aliceMain},
+					new Account[] {bobMain, aliceSavings}, new long[] {1_000, amount}));
+		}
+		checkBalancesAfterRestart(10_000, 5_000, 1_000);
+	}
+}
@@ -0,0 +1,57 @@
+package newbank.server;
+
+/**
+ * The run/check helpers shared by the test classes. The tree has no test framework, so each test class is a main that
+ * runs its checks through {@link #run} and ends with {@link #exit}, exiting with status 1 if any check failed.
+ */
+public final class Checks {
+	public interface Check {
+		void run() throws Exception;
+	}
+
+	private static int failures;
+
+	private Checks() {
+	}
+
+	public static void run(String name, Check check) {
+		try {
+			check.run();
+			System.out.println("ok   " + name);
+		} catch (Throwable ex) {
+			failures++;
+			System.out.println("FAIL " + name + ": " + ex);
+			ex.printStackTrace(System.out);
+		}
+	}
+
+	public static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	public static void checkEquals(Object expected, Object actual) {
+		if (!expected.equals(actual)) {
+			throw new AssertionError("expected " + expected + " but was " + actual);
+		}
+	}
+
+	/** Checks that the code throws the given exception, returning it so its message can be checked too */
+	public static <T extends Throwable> T checkThrows(Class<T> expected, Check check) {
+		try {
+			check.run();
+		} catch (Throwable ex) {
+			if (expected.isInstance(ex)) {
+				return expected.cast(ex);
+			}
+			throw new AssertionError("expected " + expected.getSimpleName() + " but got " + ex, ex);
+		}
+		throw new AssertionError("expected " + expected.getSimpleName() + " but nothing was thrown");
+	}
+
+	public static void exit() {
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,239 @@
+package newbank.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static newbank.server.Checks.*;
+
+/**
+ * Checks of the journal, the bank's durability path: replay across segments, torn tails, durable
+ * notification, and checkpoints that succeed, fail and are retried.
+ * <p>
+ * Runs on the JDK alone, see {@link Checks}: {@code java -cp <classes> newbank.server.JournalTest}.
+ */
+public class JournalTest {
+	public static void main(String[] args) throws Exception {
+		System.setProperty(Pbkdf2CredentialHasher.ITERATIONS_PROPERTY, "1000");
+		JournalTest test = new JournalTest();
+		run("replaysRecordsInOrder", test::replaysRecordsInOrder);
+		run("truncatesTornTail", test::truncatesTornTail);
+		run("truncatesCorruptRecord", test::truncatesCorruptRecord);
+		run("publishesOnlyDurableRecords", test::publishesOnlyDurableRecords);
+		run("checkpointDoesNotBlockAppends", test::checkpointDoesNotBlockAppends);
+		run("failedCheckpointKeepsSealedSegment", test::failedCheckpointKeepsSealedSegment);
+		run("failedSnapshotIsRequeuedAndReplayed", test::failedSnapshotIsRequeuedAndReplayed);
+		exit();
+	}
+
+	private static File newDirectory() throws IOException {
+		File directory = Files.createTempDirectory("newbank-journal").toFile();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	/** Remembers every record it is given, as text */
+	private static class Recorder implements Journal.Visitor {
+		final List<String> records = new ArrayList<>();
+
+		@Override
+		public synchronized void customerCreated(int id, String username, String password) {
+			records.add("customer " + id + " " + username);
+		}
+
+		@Override
+		public synchronized void passwordChanged(int id, String password) {
+			records.add("password " + id);
+		}
+
+		@Override
+		public synchronized void accountCreated(int id, int customerId, String name, long balance) {
+			records.add("account " + id + " " + customerId + " " + name + " " + balance);
+		}
+
+		@Override
+		public synchronized void accountDeleted(int id) {
+			records.add("deleted " + id);
+		}
+
+		@Override
+		public synchronized void balanceChanged(int accountId, long balance) {
+			records.add("balance " + accountId + " " + balance);
+		}
+	}
+
+	private static List<String> replay(File file) throws IOException {
+		Journal journal = new Journal(file, Journal.FsyncPolicy.ALWAYS, new Recorder());
+		Recorder recorder = new Recorder();
+		journal.replay(recorder);
+		journal.close();
+		return recorder.records;
+	}
+
+	void replaysRecordsInOrder() throws Exception {
+		File file = new File(newDirectory(), "journal.bin");
+		Journal journal = new Journal(file, Journal.FsyncPolicy.ALWAYS, new Recorder());
+		journal.customerCreated(1, "alice", "hash");
+		journal.accountCreated(7, 1, "main", 1000);
+		journal.balanceChanged(7, 950);
+		journal.passwordChanged(1, "rehash");
+		journal.sync(journal.accountDeleted(7));
+		journal.close();
+		checkEquals(List.of("customer 1 alice", "account 7 1 main 1000", "balance 7 950", "password 1", "deleted 7"), replay(file));
+	}
+
+	void truncatesTornTail() throws Exception {
+		File file = new File(newDirectory(), "journal.bin");
+		Journal journal = new Journal(file, Journal.FsyncPolicy.ALWAYS, new Recorder());
+		journal.sync(journal.balanceChanged(3, 100));
+		journal.close();
+		long intactLength = file.length();
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			// a record cut off by a crash: its length promises more bytes than were written
+			out.write(new byte[] {0, 0, 0, 13, 4, 0, 0});
+		}
+		checkEquals(List.of("balance 3 100"), replay(file));
+		checkEquals(intactLength, file.length());
+	}
+
+	void truncatesCorruptRecord() throws Exception {
+		File file = new File(newDirectory(), "journal.bin");
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(frame(4, payload -> {
+				payload.writeInt(3);
+				payload.writeLong(100);
+			}, false));
+			out.write(frame(4, payload -> {
+				payload.writeInt(3);
+				payload.writeLong(200);
+			}, true));
+			out.write(frame(4, payload -> {
+				payload.writeInt(3);
+				payload.writeLong(300);
+			}, false));
+		}
+		long intactLength = frame(4, payload -> {
+			payload.writeInt(3);
+			payload.writeLong(100);
+		}, false).length;
+		// nothing after a record failing its checksum can be trusted to follow it
+		checkEquals(List.of("balance 3 100"), replay(file));
+		checkEquals(intactLength, file.length());
+	}
+
+	void publishesOnlyDurableRecords() throws Exception {
+		File directory = newDirectory();
+		Recorder always = new Recorder();
+		Journal journal = new Journal(new File(directory, "always.bin"), Journal.FsyncPolicy.ALWAYS, always);
+		long seq = journal.balanceChanged(1, 10);
+		checkEquals(List.of(), always.records);
+		journal.sync(seq);
+		checkEquals(List.of("balance 1 10"), always.records);
+		journal.close();
+
+		Recorder interval = new Recorder();
+		journal = new Journal(new File(directory, "interval.bin"), Journal.FsyncPolicy.INTERVAL, interval);
+		journal.sync(journal.balanceChanged(1, 10));
+		checkEquals(List.of(), interval.records);
+		journal.force();
+		checkEquals(List.of("balance 1 10"), interval.records);
+		journal.close();
+	}
+
+	void checkpointDoesNotBlockAppends() throws Exception {
+		File file = new File(newDirectory(), "journal.bin");
+		Journal journal = new Journal(file, Journal.FsyncPolicy.ALWAYS, new Recorder());
+		journal.sync(journal.balanceChanged(1, 10));
+		journal.checkpoint(() -> {
+			// a transfer made while the snapshot is written must neither wait for it nor be lost with the old segment
+			CompletableFuture<Void> transfer = CompletableFuture.runAsync(() -> journal.sync(journal.balanceChanged(2, 20)));
+			try {
+				transfer.get(5, TimeUnit.SECONDS);
+			} catch (Exception ex) {
+				throw new AssertionError("append blocked by the checkpoint", ex);
+			}
+			check(new File(file.getPath() + ".1").exists(), "the segment being snapshotted is sealed");
+		});
+		check(!new File(file.getPath() + ".1").exists(), "the sealed segment is deleted after the snapshot");
+		journal.close();
+		checkEquals(List.of("balance 2 20"), replay(file));
+	}
+
+	void failedCheckpointKeepsSealedSegment() throws Exception {
+		File file = new File(newDirectory(), "journal.bin");
+		Journal journal = new Journal(file, Journal.FsyncPolicy.ALWAYS, new Recorder());
+		journal.sync(journal.balanceChanged(1, 10));
+		try {
+			journal.checkpoint(() -> {
+				throw new IOException("disk full");
+			});
+			throw new AssertionError("the snapshot failure is reported");
+		} catch (IOException expected) {
+		}
+		journal.sync(journal.balanceChanged(1, 20));
+		journal.close();
+		checkEquals(List.of("balance 1 10", "balance 1 20"), replay(file));
+
+		journal = new Journal(file, Journal.FsyncPolicy.ALWAYS, new Recorder());
+		journal.checkpoint(() -> {
+		});
+		journal.close();
+		check(!new File(file.getPath() + ".1").exists() && !new File(file.getPath() + ".2").exists(),
+				"the next checkpoint deletes every segment sealed so far");
+		checkEquals(List.of(), replay(file));
+	}
+
+	void failedSnapshotIsRequeuedAndReplayed() throws Exception {
+		File directory = newDirectory();
+		for (String name : new String[] {"customer.csv", "account.csv", "microloan.csv", "microloan_offer.csv", "microloan_request.csv"}) {
+			Files.write(new File(directory, name).toPath(), new byte[0]);
+		}
+		File customerFile = new File(directory, "customer.csv");
+		File blocker = new File(directory, "customer.csv.tmp");
+		NewBank bank = new NewBank(new DatabaseHandler(directory));
+		bank.addCustomer(new Session(), "Tester1", "Passw0rd!", 500);
+		// a directory where the snapshot's temp file should go makes writing customer.csv fail
+		check(blocker.mkdir(), "blocker created");
+		bank.persistData();
+		check(!Files.readString(customerFile.toPath()).contains("Tester1"), "the failed snapshot did not replace customer.csv");
+		check(new File(directory, "journal.bin.1").exists(), "the journal covering the failed snapshot is kept");
+		bank.close();
+
+		check(blocker.delete(), "blocker removed");
+		bank = new NewBank(new DatabaseHandler(directory));
+		check(bank.usernameExists("Tester1") != null, "the customer is replayed from the kept journal");
+		bank.persistData();
+		check(Files.readString(customerFile.toPath()).contains("Tester1"), "the requeued customer reaches the next snapshot");
+		bank.close();
+		check(!new File(directory, "journal.bin.1").exists(), "the kept journal is deleted once a snapshot succeeds");
+	}
+
+	private interface Payload {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/** A record framed as the journal writes it, with its checksum optionally broken */
+	private static byte[] frame(int type, Payload payload, boolean corrupt) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(body);
+		out.writeByte(type);
+		payload.write(out);
+		byte[] bytes = body.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes);
+		ByteArrayOutputStream framed = new ByteArrayOutputStream();
+		DataOutputStream frame = new DataOutputStream(framed);
+		frame.writeInt(bytes.length);
+		frame.write(bytes);
+		frame.writeInt((int) crc.getValue() ^ (corrupt ? 1 : 0));
+		return framed.toByteArray();
+	}
+}
@@ -0,0 +1,98 @@
+package newbank.server;
+
+import static newbank.server.Checks.*;
+
+/**
+ * Checks of {@link Money}, which every amount in the bank goes through, typed in by a customer or read from a record
+ * file. Runs on the JDK alone, see {@link Checks}.
+ */
+public class MoneyTest {
+	public static void main(String[] args) {
+		MoneyTest test = new MoneyTest();
+		run("parsesPoundsAndPence", test::parsesPoundsAndPence);
+		run("rejectsInvalidAmounts", test::rejectsInvalidAmounts);
+		run("acceptsOnlyPositiveAmountsFromCustomers", test::acceptsOnlyPositiveAmountsFromCustomers);
+		run("roundsOldRecordFilesHalfUp", test::roundsOldRecordFilesHalfUp);
+		run("readsExponentsInOldRecordFiles", test::readsExponentsInOldRecordFiles);
+		run("formatsTwoDecimalPlaces", test::formatsTwoDecimalPlaces);
+		run("formatsWhatItParses", test::formatsWhatItParses);
+		exit();
+	}
+
+	private static long parseRecord(String text) {
+		return Money.parse(text, 0, text.length(), true);
+	}
+
+	void parsesPoundsAndPence() {
+		checkEquals(1200L, Money.parse("12"));
+		checkEquals(1250L, Money.parse("12.5"));
+		checkEquals(1205L, Money.parse("12.05"));
+		checkEquals(-305L, Money.parse("-3.05"));
+		checkEquals(50L, Money.parse(".5"));
+		checkEquals(1200L, Money.parse("12."));
+		checkEquals(0L, Money.parse("0.00"));
+		checkEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+		// only the given range is read
+		checkEquals(1205L, Money.parse("id:12.05,", 3, 8, false));
+	}
+
+	void rejectsInvalidAmounts() {
+		NumberFormatException ex = checkThrows(NumberFormatException.class, () -> Money.parse("12.345"));
+		checkEquals("Amounts can have at most two decimal places", ex.getMessage());
+		ex = checkThrows(NumberFormatException.class, () -> Money.parse(""));
+		checkEquals("Empty amount", ex.getMessage());
+		for (String text : new String[] {"-", ".", "abc", "1,000", "1.2.3", " 1", "+1", "£1"}) {
+			ex = checkThrows(NumberFormatException.class, () -> Money.parse(text));
+			checkEquals("Invalid amount \"" + text + "\"", ex.getMessage());
+		}
+		checkThrows(ArithmeticException.class, () -> Money.parse("92233720368547758.08"));
+	}
+
+	void acceptsOnlyPositiveAmountsFromCustomers() {
+		checkEquals(1L, Money.parsePositive("0.01"));
+		checkThrows(NumberFormatException.class, () -> Money.parsePositive("0"));
+		checkThrows(NumberFormatException.class, () -> Money.parsePositive("-1"));
+	}
+
+	void roundsOldRecordFilesHalfUp() {
+		checkEquals(1235L, parseRecord("12.345"));
+		checkEquals(1234L, parseRecord("12.3449"));
+		checkEquals(-1235L, parseRecord("-12.345"));
+		checkEquals(10L, parseRecord("0.1"));
+		checkEquals(1000L, parseRecord("9.999"));
+		// a float such as 0.1f written out in full
+		checkEquals(10L, parseRecord("0.10000000149011612"));
+	}
+
+	void readsExponentsInOldRecordFiles() {
+		// Double.toString and Float.toString switch to this form from 10,000,000 up
+		checkEquals(1_000_000_000L, parseRecord("1.0E7"));
+		checkEquals(1_234_567_800L, parseRecord("1.2345678E7"));
+		checkEquals(1_234_567_891L, parseRecord("1.23456789051E7"));
+		checkEquals(-1_000_000_000L, parseRecord("-1.0E7"));
+		// and below 0.001, where only the rounding is left
+		checkEquals(0L, parseRecord("1.0E-4"));
+		checkEquals(1L, parseRecord("5.0E-3"));
+		checkThrows(NumberFormatException.class, () -> parseRecord("1.0E"));
+		checkThrows(NumberFormatException.class, () -> parseRecord("E7"));
+		// a customer typing an amount gets no exponents
+		checkThrows(NumberFormatException.class, () -> Money.parse("1.0E7"));
+	}
+
+	void formatsTwoDecimalPlaces() {
+		checkEquals("0.00", Money.format(0));
+		checkEquals("0.05", Money.format(5));
+		checkEquals("12.05", Money.format(1205));
+		checkEquals("-0.05", Money.format(-5));
+		checkEquals("-3.50", Money.format(-350));
+		checkEquals("92233720368547758.07", Money.format(Long.MAX_VALUE));
+		checkEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE));
+		checkEquals("balance: 1.00", Money.appendTo(new StringBuilder("balance: "), 100).toString());
+	}
+
+	void formatsWhatItParses() {
+		for (long pence : new long[] {0, 1, 99, 100, 101, -1, -99, -101, 123_456_789, Long.MAX_VALUE, Long.MIN_VALUE + 1}) {
+			checkEquals(pence, Money.parse(Money.format(pence)));
+		}
+	}
+}
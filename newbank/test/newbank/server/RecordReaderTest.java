@@ -0,0 +1,127 @@
+package newbank.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static newbank.server.Checks.*;
+
+/**
+ * Checks of {@link RecordReader}, which every record file is loaded through at startup: how rows and fields are split,
+ * and the typed getters that parse values in place.
+ * <p>
+ * Runs on the JDK alone, see {@link Checks}: {@code java -cp <classes> newbank.server.RecordReaderTest}.
+ */
+public class RecordReaderTest {
+	public static void main(String[] args) throws Exception {
+		RecordReaderTest test = new RecordReaderTest();
+		run("splitsOnFirstColonOnly", test::splitsOnFirstColonOnly);
+		run("endsValuesAtCommas", test::endsValuesAtCommas);
+		run("skipsBlankAndCommentRows", test::skipsBlankAndCommentRows);
+		run("growsForLongRows", test::growsForLongRows);
+		run("ignoresFieldsPastMaxFields", test::ignoresFieldsPastMaxFields);
+		run("parsesLongs", test::parsesLongs);
+		run("rejectsBadLongs", test::rejectsBadLongs);
+		run("parsesPenceAndBooleans", test::parsesPenceAndBooleans);
+		exit();
+	}
+
+	private static RecordReader open(String content) throws IOException {
+		File file = File.createTempFile("newbank-records", ".csv");
+		file.deleteOnExit();
+		Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+		return new RecordReader(file);
+	}
+
+	void splitsOnFirstColonOnly() throws IOException {
+		try (RecordReader reader = open("id:1,expiryDate:2022-04-16T01:24:58.034,name:a:b\n")) {
+			check(reader.next(), "expected a row");
+			checkEquals("2022-04-16T01:24:58.034", reader.getString("expiryDate"));
+			checkEquals("a:b", reader.getString("name"));
+			check(!reader.next(), "expected the end of the file");
+		}
+	}
+
+	void endsValuesAtCommas() throws IOException {
+		// there is no quoting: a value ends at the next comma, and a field without a colon is dropped
+		try (RecordReader reader = open("name:,note:a,b,id:2")) {
+			check(reader.next(), "expected a row without a trailing newline");
+			checkEquals("", reader.getString("name"));
+			checkEquals("a", reader.getString("note"));
+			check(!reader.has("b"), "a field without a colon should be dropped");
+			checkEquals(2L, reader.getLong("id"));
+		}
+	}
+
+	void skipsBlankAndCommentRows() throws IOException {
+		try (RecordReader reader = open("# crc32:1234\r\n\r\nid:1\r\n,,\nid:2\r\n# crc32:5678\n")) {
+			check(reader.next(), "expected the first row");
+			checkEquals(1L, reader.getLong("id"));
+			check(reader.next(), "expected the second row");
+			checkEquals(2L, reader.getLong("id"));
+			check(!reader.next(), "expected the end of the file");
+			checkEquals(2L, reader.getRowCount());
+		}
+	}
+
+	void growsForLongRows() throws IOException {
+		String name = "n".repeat(1000);
+		try (RecordReader reader = open("name:" + name + ",id:7\n")) {
+			check(reader.next(), "expected a row");
+			checkEquals(name, reader.getString("name"));
+			checkEquals(7L, reader.getLong("id"));
+		}
+	}
+
+	void ignoresFieldsPastMaxFields() throws IOException {
+		StringBuilder row = new StringBuilder();
+		for (int i = 1; i <= 20; i++) {
+			row.append("f").append(i).append(':').append(i).append(',');
+		}
+		try (RecordReader reader = open(row + "\nf1:100\n")) {
+			check(reader.next(), "expected a row");
+			checkEquals(16L, reader.getLong("f16"));
+			check(!reader.has("f17"), "only the first 16 fields of a row are kept");
+			checkThrows(IllegalStateException.class, () -> reader.getLong("f20"));
+			// the next row starts from a clean slate
+			check(reader.next(), "expected the second row");
+			checkEquals(100L, reader.getLong("f1"));
+			check(!reader.has("f2"), "fields of the previous row should be gone");
+		}
+	}
+
+	void parsesLongs() throws IOException {
+		try (RecordReader reader = open("a:0,b:-42,c:9223372036854775807,d:2147483647\n")) {
+			check(reader.next(), "expected a row");
+			checkEquals(0L, reader.getLong("a"));
+			checkEquals(-42L, reader.getLong("b"));
+			checkEquals(Long.MAX_VALUE, reader.getLong("c"));
+			checkEquals(Integer.MAX_VALUE, reader.getInt("d"));
+			checkThrows(ArithmeticException.class, () -> reader.getInt("c"));
+		}
+	}
+
+	void rejectsBadLongs() throws IOException {
+		try (RecordReader reader = open("empty:,minus:-,decimal:1.5,spaced: 1\n")) {
+			check(reader.next(), "expected a row");
+			for (String key : new String[] {"empty", "minus", "decimal", "spaced"}) {
+				NumberFormatException ex = checkThrows(NumberFormatException.class, () -> reader.getLong(key));
+				check(ex.getMessage().contains("\"" + key + "\""), "message should name the field: " + ex.getMessage());
+			}
+			IllegalStateException ex = checkThrows(IllegalStateException.class, () -> reader.getLong("missing"));
+			check(ex.getMessage().contains("record 1"), "message should name the record: " + ex.getMessage());
+		}
+	}
+
+	void parsesPenceAndBooleans() throws IOException {
+		try (RecordReader reader = open("balance:700.0,old:1.0E7,repaid:TRUE,open:false,odd:truer\n")) {
+			check(reader.next(), "expected a row");
+			checkEquals(70_000L, reader.getPence("balance"));
+			checkEquals(1_000_000_000L, reader.getPence("old"));
+			check(reader.getBoolean("repaid"), "TRUE should read as true");
+			check(!reader.getBoolean("open"), "false should read as false");
+			check(!reader.getBoolean("odd"), "only true reads as true");
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package newbank.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static newbank.server.Checks.*;
+
+/**
+ * Checks of {@link SnapshotWriter}: a committed snapshot verifies and reads back, one that is abandoned leaves the old
+ * file alone, and {@link SnapshotWriter#verify} refuses a snapshot that is truncated anywhere or damaged.
+ * <p>
+ * Runs on the JDK alone, see {@link Checks}: {@code java -cp <classes> newbank.server.SnapshotWriterTest}.
+ */
+public class SnapshotWriterTest {
+	public static void main(String[] args) {
+		SnapshotWriterTest test = new SnapshotWriterTest();
+		run("commitsRowsThatReadBack", test::commitsRowsThatReadBack);
+		run("commitsSnapshotsLargerThanItsBuffer", test::commitsSnapshotsLargerThanItsBuffer);
+		run("leavesOldFileWhenNotCommitted", test::leavesOldFileWhenNotCommitted);
+		run("acceptsFilesFromBeforeSnapshots", test::acceptsFilesFromBeforeSnapshots);
+		run("rejectsEveryTruncation", test::rejectsEveryTruncation);
+		run("rejectsBadChecksum", test::rejectsBadChecksum);
+		run("rejectsWrongRowCount", test::rejectsWrongRowCount);
+		exit();
+	}
+
+	private static File newFile() throws IOException {
+		File directory = Files.createTempDirectory("newbank-snapshot").toFile();
+		directory.deleteOnExit();
+		File file = new File(directory, "account.csv");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static File snapshot(String... records) throws IOException {
+		File file = newFile();
+		try (SnapshotWriter writer = new SnapshotWriter(file)) {
+			for (String record : records) {
+				writer.write(record);
+			}
+			writer.commit();
+		}
+		return file;
+	}
+
+	private static void write(File file, byte[] bytes) throws IOException {
+		Files.write(file.toPath(), bytes);
+	}
+
+	private static IOException checkRejected(File file) {
+		return checkThrows(IOException.class, () -> SnapshotWriter.verify(file));
+	}
+
+	void commitsRowsThatReadBack() throws IOException {
+		File file = snapshot("id:1,name:main,balance:700.00", "id:2,name:café,balance:-0.05");
+		SnapshotWriter.verify(file);
+		check(!new File(file.getPath() + ".tmp").exists(), "the temp file is renamed away");
+		try (RecordReader reader = new RecordReader(file)) {
+			check(reader.next(), "expected the first row");
+			checkEquals(70_000L, reader.getPence("balance"));
+			check(reader.next(), "expected the second row");
+			checkEquals("café", reader.getString("name"));
+			check(!reader.next(), "the header and trailer are not rows");
+		}
+	}
+
+	void commitsSnapshotsLargerThanItsBuffer() throws IOException {
+		String[] records = new String[40_000];
+		for (int i = 0; i < records.length; i++) {
+			records[i] = "id:" + i + ",customerId:" + i + ",name:account" + i + ",balance:" + i + ".00";
+		}
+		File file = snapshot(records);
+		check(file.length() > 1 << 20, "expected a snapshot spanning several buffers, was " + file.length());
+		SnapshotWriter.verify(file);
+		try (RecordReader reader = new RecordReader(file)) {
+			while (reader.next()) {
+				checkEquals(reader.getRowCount() - 1, reader.getLong("id"));
+			}
+			checkEquals((long) records.length, reader.getRowCount());
+		}
+	}
+
+	void leavesOldFileWhenNotCommitted() throws IOException {
+		File file = snapshot("id:1");
+		byte[] committed = Files.readAllBytes(file.toPath());
+		try (SnapshotWriter writer = new SnapshotWriter(file)) {
+			writer.write("id:2");
+		}
+		check(Arrays.equals(committed, Files.readAllBytes(file.toPath())), "the old snapshot is untouched");
+		check(!new File(file.getPath() + ".tmp").exists(), "the temp file is deleted");
+	}
+
+	void acceptsFilesFromBeforeSnapshots() throws IOException {
+		File file = newFile();
+		SnapshotWriter.verify(file);
+		write(file, new byte[0]);
+		SnapshotWriter.verify(file);
+		write(file, "id:1,customerId:1,name:main,balance:700.0\n".getBytes(StandardCharsets.UTF_8));
+		SnapshotWriter.verify(file);
+	}
+
+	void rejectsEveryTruncation() throws IOException {
+		byte[] bytes = Files.readAllBytes(snapshot("id:1,balance:1.00", "id:2,balance:2.00", "id:3,balance:3.00").toPath());
+		File file = newFile();
+		// an empty file is a legitimate empty table from before snapshots, so truncation is checked from one byte up
+		for (int length = 1; length < bytes.length; length++) {
+			write(file, Arrays.copyOf(bytes, length));
+			IOException ex = checkRejected(file);
+			check(ex.getMessage().contains("truncated") || ex.getMessage().contains("Malformed"),
+					"cut to " + length + " bytes: " + ex.getMessage());
+		}
+	}
+
+	void rejectsBadChecksum() throws IOException {
+		File file = snapshot("id:1,balance:1.00", "id:2,balance:2.00");
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		String text = new String(bytes, StandardCharsets.US_ASCII);
+		// a flipped bit in a record, and a record edited by hand
+		for (int offset : new int[] {text.indexOf("id:2"), text.indexOf("2.00")}) {
+			try (RandomAccessFile damaged = new RandomAccessFile(file, "rw")) {
+				damaged.seek(offset);
+				damaged.write(bytes[offset] ^ 1);
+			}
+			checkEquals("Checksum mismatch in " + file + ", the snapshot is damaged", checkRejected(file).getMessage());
+			write(file, bytes);
+		}
+		SnapshotWriter.verify(file);
+		// and a trailer whose checksum is not hex
+		int checksum = text.indexOf("#crc32c:") + "#crc32c:".length();
+		bytes[checksum] = 'x';
+		write(file, bytes);
+		check(checkRejected(file).getMessage().startsWith("Malformed checksum trailer"), "expected a malformed trailer");
+	}
+
+	void rejectsWrongRowCount() throws IOException {
+		File file = snapshot("id:1", "id:2");
+		String text = Files.readString(file.toPath(), StandardCharsets.US_ASCII);
+		check(text.endsWith(",rows:2\n"), "expected the trailer to count two rows: " + text);
+		write(file, text.replace(",rows:2\n", ",rows:3\n").getBytes(StandardCharsets.US_ASCII));
+		checkEquals("Found 2 rows in " + file + " where its trailer has 3", checkRejected(file).getMessage());
+	}
+}
@@ -0,0 +1,193 @@
+package newbank.server.microloan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static newbank.server.Checks.*;
+
+/**
+ * Checks of the microloan offer book: price-time priority and partial fills in {@link MicroloanMatchingEngine}, and how
+ * {@link MicroloanManagement} settles fills, withdraws offers that cannot be funded and loads the book.
+ * <p>
+ * Runs on the JDK alone, see {@link newbank.server.Checks}: {@code java -cp <classes> newbank.server.microloan.MicroloanMatchingEngineTest}.
+ */
+public class MicroloanMatchingEngineTest {
+    public static void main(String[] args) {
+        MicroloanMatchingEngineTest test = new MicroloanMatchingEngineTest();
+        run("fillsCheapestOffersFirst", test::fillsCheapestOffersFirst);
+        run("fillsInArrivalOrderWithinARate", test::fillsInArrivalOrderWithinARate);
+        run("fillsPartially", test::fillsPartially);
+        run("stopsAtTheRequestedRate", test::stopsAtTheRequestedRate);
+        run("neverMatchesOwnOffers", test::neverMatchesOwnOffers);
+        run("cancelsOffers", test::cancelsOffers);
+        run("rejectsRatesOutsideTheBook", test::rejectsRatesOutsideTheBook);
+        run("settlesFillsAndLeavesRemainderOpen", test::settlesFillsAndLeavesRemainderOpen);
+        run("rematchesWhenALenderCannotFund", test::rematchesWhenALenderCannotFund);
+        run("skipsOffersTheBookCannotHold", test::skipsOffersTheBookCannotHold);
+        exit();
+    }
+
+    /** Records every fill as "offerId:amount@rate" */
+    private static final class Fills implements MicroloanMatchingEngine.FillListener {
+        final List<String> fills = new ArrayList<>();
+
+        @Override
+        public void onFill(int offerId, int lenderId, long amountPence, int rateBasisPoints) {
+            fills.add(offerId + ":" + amountPence + "@" + rateBasisPoints);
+        }
+    }
+
+    private static List<String> submit(MicroloanMatchingEngine engine, int borrowerId, long amount, int maxRate, long expectedRemaining) {
+        Fills fills = new Fills();
+        checkEquals(expectedRemaining, engine.submitRequest(borrowerId, amount, maxRate, fills));
+        return fills.fills;
+    }
+
+    void fillsCheapestOffersFirst() {
+        MicroloanMatchingEngine engine = new MicroloanMatchingEngine();
+        engine.restOffer(1, 10, 1000, 300);
+        engine.restOffer(2, 11, 1000, 100);
+        engine.restOffer(3, 12, 1000, 200);
+        checkEquals(List.of("2:1000@100", "3:1000@200", "1:500@300"), submit(engine, 20, 2500, 300, 0));
+        checkEquals(500L, engine.offerRemaining(1));
+        checkEquals(0L, engine.offerRemaining(2));
+    }
+
+    void fillsInArrivalOrderWithinARate() {
+        MicroloanMatchingEngine engine = new MicroloanMatchingEngine();
+        engine.restOffer(5, 10, 1000, 150);
+        engine.restOffer(3, 11, 1000, 150);
+        engine.restOffer(4, 12, 1000, 150);
+        checkEquals(List.of("5:1000@150", "3:500@150"), submit(engine, 20, 1500, 150, 0));
+        // the partly filled offer keeps its place ahead of later arrivals
+        checkEquals(List.of("3:500@150", "4:100@150"), submit(engine, 20, 600, 150, 0));
+    }
+
+    void fillsPartially() {
+        MicroloanMatchingEngine engine = new MicroloanMatchingEngine();
+        engine.restOffer(1, 10, 700, 100);
+        checkEquals(List.of("1:300@100"), submit(engine, 20, 300, 100, 0));
+        checkEquals(400L, engine.offerRemaining(1));
+        checkEquals(List.of("1:400@100"), submit(engine, 20, 1000, 100, 600));
+        checkEquals(0L, engine.offerRemaining(1));
+        checkEquals(List.of(), submit(engine, 20, 1000, 100, 1000));
+    }
+
+    void stopsAtTheRequestedRate() {
+        MicroloanMatchingEngine engine = new MicroloanMatchingEngine();
+        engine.restOffer(1, 10, 1000, 100);
+        engine.restOffer(2, 11, 1000, 101);
+        checkEquals(List.of("1:1000@100"), submit(engine, 20, 2000, 100, 1000));
+        checkEquals(1000L, engine.offerRemaining(2));
+    }
+
+    void neverMatchesOwnOffers() {
+        MicroloanMatchingEngine engine = new MicroloanMatchingEngine();
+        engine.restOffer(1, 20, 1000, 100);
+        engine.restOffer(2, 11, 1000, 200);
+        checkEquals(List.of("2:500@200"), submit(engine, 20, 500, 200, 0));
+        checkEquals(1000L, engine.offerRemaining(1));
+        checkEquals(List.of("1:500@100"), submit(engine, 30, 500, 200, 0));
+    }
+
+    void cancelsOffers() {
+        MicroloanMatchingEngine engine = new MicroloanMatchingEngine();
+        engine.restOffer(1, 10, 1000, 100);
+        engine.restOffer(2, 11, 1000, 200);
+        check(engine.cancelOffer(1), "expected the offer to be cancelled");
+        check(!engine.cancelOffer(1), "an offer is only cancelled once");
+        checkEquals(0L, engine.offerRemaining(1));
+        checkEquals(List.of("2:1000@200"), submit(engine, 20, 1000, 10_000, 0));
+        // and the book is usable again once empty
+        engine.restOffer(3, 10, 50, 0);
+        checkEquals(List.of("3:50@0"), submit(engine, 20, 50, 0, 0));
+    }
+
+    void rejectsRatesOutsideTheBook() {
+        MicroloanMatchingEngine engine = new MicroloanMatchingEngine();
+        checkThrows(IllegalArgumentException.class, () -> engine.restOffer(1, 10, 1000, 10_001));
+        checkThrows(IllegalArgumentException.class, () -> engine.restOffer(1, 10, 1000, -1));
+        checkThrows(IllegalArgumentException.class, () -> engine.submitRequest(20, 1000, 10_001, new Fills()));
+        engine.restOffer(1, 10, 1000, MicroloanMatchingEngine.MAX_RATE_BASIS_POINTS);
+        checkEquals(1000L, engine.offerRemaining(1));
+    }
+
+    private static MicroloanOffer offer(int id, int customerId, long amount, float interestRate) {
+        MicroloanOffer offer = new MicroloanOffer();
+        offer.setId(id);
+        offer.setCustomerId(customerId);
+        offer.setAmount(amount);
+        offer.setInterestRate(interestRate);
+        return offer;
+    }
+
+    private static MicroLoanRequest request(int customerId, long amount, float interestRate) {
+        MicroLoanRequest request = new MicroLoanRequest();
+        request.setCustomerId(customerId);
+        request.setAmount(amount);
+        request.setInterestRate(interestRate);
+        return request;
+    }
+
+    private static MicroloanManagement management(MicroloanOffer... offers) {
+        MicroloanManagement management = new MicroloanManagement();
+        management.setMicroLoanRequestList(List.of());
+        management.setMicroloanList(List.of());
+        management.setMicroloanOffers(List.of(offers));
+        return management;
+    }
+
+    private static Microloan settle(MicroloanOffer offer, MicroLoanRequest request, long amount) {
+        Microloan microloan = new Microloan();
+        microloan.setAmount(amount);
+        microloan.setInterest(offer.getInterestRate());
+        return microloan;
+    }
+
+    void settlesFillsAndLeavesRemainderOpen() {
+        MicroloanOffer cheap = offer(1, 10, 1000, 0.01f);
+        MicroloanOffer dear = offer(2, 11, 1000, 0.02f);
+        MicroloanManagement management = management(dear, cheap);
+        MicroLoanRequest request = request(20, 1500, 0.02f);
+        List<Microloan> microloans = management.submitRequest(request, MicroloanMatchingEngineTest::settle);
+        checkEquals(2, microloans.size());
+        checkEquals(1000L, microloans.get(0).getAmount());
+        checkEquals(500L, microloans.get(1).getAmount());
+        checkEquals(0L, request.getAmount());
+        check(management.getOffer(1) == null, "a filled offer should leave the book");
+        checkEquals(500L, management.getOffer(2).getAmount());
+        checkEquals(2, management.getMicroloanList().size());
+
+        MicroLoanRequest large = request(21, 800, 0.02f);
+        checkEquals(1, management.submitRequest(large, MicroloanMatchingEngineTest::settle).size());
+        checkEquals(300L, large.getAmount());
+        check(management.getMicroLoanRequestList().contains(large), "the unfilled remainder should stay open");
+        check(management.getOffersByInterestRate().isEmpty(), "the book should be empty");
+    }
+
+    void rematchesWhenALenderCannotFund() {
+        MicroloanOffer unfunded = offer(1, 10, 1000, 0.01f);
+        MicroloanOffer funded = offer(2, 11, 1000, 0.02f);
+        MicroloanManagement management = management(unfunded, funded);
+        MicroLoanRequest request = request(20, 600, 0.05f);
+        List<Microloan> microloans = management.submitRequest(request,
+                (offer, req, amount) -> offer.getCustomerId() == 10 ? null : settle(offer, req, amount));
+        checkEquals(1, microloans.size());
+        checkEquals(600L, microloans.get(0).getAmount());
+        checkEquals(0.02f, microloans.get(0).getInterest());
+        check(management.getOffer(1) == null, "an offer that cannot be funded should be withdrawn");
+        checkEquals(400L, management.getOffer(2).getAmount());
+        checkEquals(0L, request.getAmount());
+    }
+
+    void skipsOffersTheBookCannotHold() {
+        MicroloanManagement management = management(offer(1, 10, 1000, 1.5f), offer(2, 10, 0, 0.1f),
+                offer(3, 10, 1000, Float.NaN), offer(4, 10, 1000, 1.0f));
+        checkEquals(1, management.getOffersByInterestRate().size());
+        checkEquals(4, management.getOffersByInterestRate().iterator().next().getId());
+        check(MicroloanManagement.checkOffer(offer(5, 10, 1000, 0f)) == null, "a free loan is a valid offer");
+        IllegalArgumentException ex = checkThrows(IllegalArgumentException.class,
+                () -> management.addOffer(offer(6, 10, 1000, -0.1f)));
+        check(ex.getMessage().startsWith("Microloan offer 6: interest rate"), ex.getMessage());
+    }
+}
@@ -0,0 +1,112 @@
+package newbank.server.validation;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static newbank.server.Checks.*;
+
+/**
+ * Checks of the {@link Validators} policies against the checks they replaced: the password regex, and the username
+ * and account name loops, which rejected a bad length before a bad character.
+ * <p>
+ * Runs on the JDK alone, see {@link newbank.server.Checks}: {@code java -cp <classes> newbank.server.validation.ValidatorsTest}.
+ */
+public class ValidatorsTest {
+	private static final Pattern OLD_PASSWORD = Pattern.compile("^(?=.*[0-9])(?=.*[a-z])(?=.*[A-Z])(?=.*[@#$%^&+=!?])(?=\\S+$).{8,25}$");
+	/** Characters the random values are drawn from, covering every class a character can fall in */
+	private static final String[] PIECES = {"a", "z", "A", "Z", "0", "9", "@", "#", "?", "!", "-", "_", ".", " ", "\t", "\n",
+			"\r", "\u000B", "\f", "é", "ß", "Ж", "٣", "\u00A0", "\u0085", "\u2028", "\u2029", "😀", "𝐀",
+			"\uD800", "\uDC00"};
+
+	public static void main(String[] args) {
+		ValidatorsTest test = new ValidatorsTest();
+		run("passwordsMatchOldRegex", test::passwordsMatchOldRegex);
+		run("randomPasswordsMatchOldRegex", test::randomPasswordsMatchOldRegex);
+		run("namesMatchOldChecks", test::namesMatchOldChecks);
+		run("randomNamesMatchOldChecks", test::randomNamesMatchOldChecks);
+		run("reportsFirstBrokenRule", test::reportsFirstBrokenRule);
+		exit();
+	}
+
+	/** The old username and account name check, returning the violation its exception stood for */
+	private static Violation oldNameCheck(String value, int minLength, int maxLength) {
+		if (value.length() < minLength) {
+			return Violation.TOO_SHORT;
+		}
+		if (value.length() > maxLength) {
+			return Violation.TOO_LONG;
+		}
+		for (char c : value.toCharArray()) {
+			if (!(Character.isAlphabetic(c) || Character.isDigit(c))) {
+				return Violation.INVALID_CHARACTER;
+			}
+		}
+		return null;
+	}
+
+	private static void checkPassword(String password) {
+		boolean expected = OLD_PASSWORD.matcher(password).matches();
+		Violation violation = Validators.PASSWORD.check(password);
+		check((violation == null) == expected, "\"" + password + "\": the old regex said " + expected + " but got " + violation);
+	}
+
+	private static void checkNames(String name) {
+		checkEquals(String.valueOf(oldNameCheck(name, 5, 25)), String.valueOf(Validators.USERNAME.check(name)));
+		checkEquals(String.valueOf(oldNameCheck(name, 3, 15)), String.valueOf(Validators.ACCOUNT_NAME.check(name)));
+	}
+
+	private static String randomValue(Random random) {
+		StringBuilder value = new StringBuilder();
+		int pieces = random.nextInt(30);
+		for (int i = 0; i < pieces; i++) {
+			value.append(PIECES[random.nextInt(PIECES.length)]);
+		}
+		return value.toString();
+	}
+
+	void passwordsMatchOldRegex() {
+		String[] passwords = {"", "Passw0rd!", "passw0rd!", "PASSW0RD!", "Password!", "Passw0rd", "Pa0!", "Pa0!aaaa",
+				"Pa0!aaa", "Pa0!" + "a".repeat(21), "Pa0!" + "a".repeat(22), "Pass w0rd!", "Passw0rd!\n", "Passw0rd!\u0085",
+				"Passw0rd!\u2028", "Passw0rd!\u00A0", "Pässw0rd!", "Passw0rd!😀", "Pa0!" + "😀".repeat(21),
+				"Pa0!" + "😀".repeat(22), "Pa0!😀😀😀", "Pa0!\uD800aaa", "Pa0!\uDC00\uD800aa", "Passw0rd_", "Passw٣0rd!"};
+		for (String password : passwords) {
+			checkPassword(password);
+		}
+	}
+
+	void randomPasswordsMatchOldRegex() {
+		Random random = new Random(16);
+		for (int i = 0; i < 200_000; i++) {
+			checkPassword(randomValue(random));
+		}
+	}
+
+	void namesMatchOldChecks() {
+		String[] names = {"", "ab", "abc", "abcd", "abcde", "a".repeat(15), "a".repeat(16), "a".repeat(25), "a".repeat(26),
+				"Kostas", "Makis2", "Jörg", "Жанна", "abc٣", "ab_cd", "ab cd", "abc😀", "ab😀", "abcd😀",
+				"a".repeat(24) + "😀", "𝐀bcde"};
+		for (String name : names) {
+			checkNames(name);
+		}
+	}
+
+	void randomNamesMatchOldChecks() {
+		Random random = new Random(8);
+		for (int i = 0; i < 200_000; i++) {
+			checkNames(randomValue(random));
+		}
+	}
+
+	void reportsFirstBrokenRule() {
+		checkEquals(Violation.TOO_SHORT, Validators.PASSWORD.check("a b"));
+		checkEquals(Violation.TOO_LONG, Validators.PASSWORD.check("a b".repeat(9)));
+		checkEquals(Violation.INVALID_CHARACTER, Validators.PASSWORD.check("pass word"));
+		checkEquals(Violation.MISSING_DIGIT, Validators.PASSWORD.check("password"));
+		checkEquals(Violation.MISSING_LOWERCASE, Validators.PASSWORD.check("PASSW0RD"));
+		checkEquals(Violation.MISSING_UPPERCASE, Validators.PASSWORD.check("passw0rd"));
+		checkEquals(Violation.MISSING_SPECIAL, Validators.PASSWORD.check("Passw0rd"));
+		checkEquals("Password must be between 8-25 characters long", Validators.describePasswordViolation(Violation.TOO_LONG));
+		checkEquals("Password must include at least one of the special characters @#$%^&+=!?",
+				Validators.describePasswordViolation(Violation.MISSING_SPECIAL));
+	}
+}